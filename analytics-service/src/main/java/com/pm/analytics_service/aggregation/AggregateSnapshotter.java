@@ -0,0 +1,230 @@
+package com.pm.analytics_service.aggregation;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32C;
+
+/** Writes the state of 'PatientEventAggregator' (the counters, and per partition the offset they
+    go up to) to a memory-mapped file every 'analytics.snapshot.interval-ms' and on shutdown, and
+    maps it back in on startup. The consumer then continues from the stored offsets (see
+    'KafkaConsumer.onPartitionsAssigned'), so a restart only replays what came after the last
+    snapshot instead of the whole 'patient' topic.
+
+    The consumer threads are only held up while the state is copied into the mapped file, not
+    while it is flushed to disk. The file is written next to the last one and moved over it, so a
+    crash mid-write leaves the previous snapshot; a CRC32C over the body catches anything else, and
+    a snapshot we can't read is ignored (we then start from the beginning of the topic).
+    The directory has to outlive the container to help, e.g. a mounted volume. */
+@Component
+@ConditionalOnProperty(name = "analytics.snapshot.enabled", havingValue = "true", matchIfMissing = true)
+public class AggregateSnapshotter {
+
+    private static final Logger log = LoggerFactory.getLogger(AggregateSnapshotter.class);
+
+    private static final int MAGIC = 0x504d4153; // "PMAS"
+    // 2: with the sketches of 'DailySketches'
+    private static final int VERSION = 2;
+    // magic, version, written at (epoch millis), body length, CRC32C of the body
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+    private final PatientEventAggregator aggregator;
+    private final Path file;
+    private final Path nextFile;
+    // The offsets of the last snapshot; no need for another one while nothing was consumed
+    private Map<TopicPartition, Long> lastOffsets = Map.of();
+
+    public AggregateSnapshotter(
+            PatientEventAggregator aggregator,
+            @Value("${analytics.snapshot.directory:snapshots}") String directoryName
+    ) throws IOException {
+        Path directory = Path.of(directoryName);
+        this.aggregator = aggregator;
+        this.file = directory.resolve("aggregates.snapshot");
+        this.nextFile = directory.resolve("aggregates.snapshot.next");
+        Files.createDirectories(directory);
+        // Before the listener containers start (they do once the context is refreshed)
+        restore();
+    }
+
+    @Scheduled(
+            initialDelayString = "${analytics.snapshot.interval-ms:30000}",
+            fixedDelayString = "${analytics.snapshot.interval-ms:30000}"
+    )
+    public void snapshot() {
+        try {
+            write();
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not write the snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    // The listener containers have stopped by now, so this has everything we consumed
+    @PreDestroy
+    public void snapshotOnShutdown() {
+        snapshot();
+    }
+
+    private synchronized void write() throws IOException {
+        if (aggregator.nextOffsets().equals(lastOffsets)) {
+            return;
+        }
+        long started = System.nanoTime();
+        int size;
+        Map<TopicPartition, Long> offsets;
+        try (FileChannel channel = FileChannel.open(nextFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer;
+            Lock lock = aggregator.snapshotLock();
+            lock.lock();
+            try {
+                offsets = Map.copyOf(aggregator.nextOffsets());
+                size = HEADER_SIZE + bodySize();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.position(HEADER_SIZE);
+                writeBody(buffer);
+            } finally {
+                lock.unlock();
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(HEADER_SIZE, size - HEADER_SIZE));
+            buffer.putInt(0, MAGIC)
+                    .putInt(4, VERSION)
+                    .putLong(8, System.currentTimeMillis())
+                    .putInt(16, size - HEADER_SIZE)
+                    .putInt(20, (int) crc.getValue());
+            buffer.force();
+        }
+        Files.move(nextFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        lastOffsets = offsets;
+        log.info("Wrote snapshot of {} partitions ({} KB) in {} ms",
+                offsets.size(), size / 1024, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private int bodySize() {
+        int size = Integer.BYTES;
+        for (TopicPartition partition : aggregator.nextOffsets().keySet()) {
+            size += stringSize(partition.topic()) + Integer.BYTES + Long.BYTES;
+        }
+        return size + countersSize(aggregator.eventTypes()) + countersSize(aggregator.emailDomains())
+                + aggregator.sketches().snapshotSize();
+    }
+
+    private void writeBody(ByteBuffer buffer) {
+        buffer.putInt(aggregator.nextOffsets().size());
+        aggregator.nextOffsets().forEach((partition, offset) -> {
+            putString(buffer, partition.topic());
+            buffer.putInt(partition.partition()).putLong(offset);
+        });
+        writeCounters(buffer, aggregator.eventTypes());
+        writeCounters(buffer, aggregator.emailDomains());
+        aggregator.sketches().writeTo(buffer);
+    }
+
+    private void restore() {
+        if (!Files.exists(file)) {
+            log.info("No snapshot in {}; the aggregates start empty", file);
+            return;
+        }
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            String problem = check(buffer);
+            if (problem != null) {
+                log.warn("Ignoring the snapshot {}: {}", file, problem);
+                return;
+            }
+            buffer.position(HEADER_SIZE);
+            Map<TopicPartition, Long> offsets = new HashMap<>();
+            for (int i = buffer.getInt(); i > 0; i--) {
+                offsets.put(new TopicPartition(getString(buffer), buffer.getInt()), buffer.getLong());
+            }
+            Map<String, WindowedCounter> eventTypes = readCounters(buffer, aggregator.stripes());
+            Map<String, WindowedCounter> emailDomains = readCounters(buffer, 1);
+            DailySketches sketches = DailySketches.readFrom(buffer);
+
+            aggregator.restore(offsets, eventTypes, emailDomains, sketches);
+            lastOffsets = Map.copyOf(offsets);
+            log.info("Restored the snapshot of {} ({} partitions: {}) in {} ms",
+                    Instant.ofEpochMilli(buffer.getLong(8)), offsets.size(), offsets,
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read the snapshot {}, the aggregates start empty: {}", file, e.toString());
+        }
+    }
+
+    private static String check(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            return "not a snapshot";
+        }
+        if (buffer.getInt(4) != VERSION) {
+            return "version " + buffer.getInt(4) + ", expected " + VERSION;
+        }
+        int bodyLength = buffer.getInt(16);
+        if (bodyLength != buffer.capacity() - HEADER_SIZE) {
+            return "truncated";
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(HEADER_SIZE, bodyLength));
+        return (int) crc.getValue() == buffer.getInt(20) ? null : "checksum mismatch";
+    }
+
+    private static int countersSize(Map<String, WindowedCounter> counters) {
+        int size = Integer.BYTES;
+        for (Map.Entry<String, WindowedCounter> entry : counters.entrySet()) {
+            size += stringSize(entry.getKey()) + entry.getValue().snapshotSize();
+        }
+        return size;
+    }
+
+    private static void writeCounters(ByteBuffer buffer, Map<String, WindowedCounter> counters) {
+        buffer.putInt(counters.size());
+        counters.forEach((key, counter) -> {
+            putString(buffer, key);
+            counter.writeTo(buffer);
+        });
+    }
+
+    private static Map<String, WindowedCounter> readCounters(ByteBuffer buffer, int stripes) {
+        Map<String, WindowedCounter> counters = new HashMap<>();
+        for (int i = buffer.getInt(); i > 0; i--) {
+            counters.put(getString(buffer), WindowedCounter.readFrom(buffer, stripes));
+        }
+        return counters;
+    }
+
+    private static int stringSize(String value) {
+        return Integer.BYTES + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
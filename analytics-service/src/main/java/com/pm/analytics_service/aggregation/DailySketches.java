@@ -0,0 +1,114 @@
+package com.pm.analytics_service.aggregation;
+
+import com.pm.analytics_service.sketch.PatientSketches;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** 'PatientSketches' for every UTC day we keep day buckets for (see 'Granularity.DAY'), plus one
+    over everything we consumed. A range of days is answered by merging its days, so "unique
+    patients in the last 30 days" counts a patient seen on several of them once.
+
+    Like the rings of 'WindowedCounter', a slot holds one day and is taken over by a newer day
+    with a single compareAndSet; an event older than the day its slot holds now is only in the
+    all-time sketches. */
+public class DailySketches {
+
+    private record Day(long day, PatientSketches sketches) {}
+
+    private static final Granularity DAY = Granularity.DAY;
+
+    private final AtomicReferenceArray<Day> days = new AtomicReferenceArray<>(DAY.slots());
+    private final PatientSketches allTime = new PatientSketches();
+
+    public void record(long timestampMillis, String patientId, String emailDomain, boolean registration) {
+        allTime.record(patientId, emailDomain, registration);
+
+        long day = DAY.bucketOf(timestampMillis);
+        int slot = Math.floorMod(day, DAY.slots());
+        Day current = days.get(slot);
+        while (current == null || current.day() < day) {
+            Day next = new Day(day, new PatientSketches());
+            if (days.compareAndSet(slot, current, next)) {
+                current = next;
+            } else {
+                current = days.get(slot);
+            }
+        }
+        if (current.day() == day) {
+            current.sketches().record(patientId, emailDomain, registration);
+        }
+    }
+
+    public PatientSketches allTime() {
+        return allTime;
+    }
+
+    /** A new instance with the days 'from' to 'to' (both included) merged; days we don't have add nothing */
+    public PatientSketches merged(long fromDay, long toDay) {
+        PatientSketches merged = new PatientSketches();
+        for (long day = fromDay; day <= toDay; day++) {
+            PatientSketches sketches = day(day);
+            if (sketches != null) {
+                merged.merge(sketches);
+            }
+        }
+        return merged;
+    }
+
+    /** The live sketches of a day, or null */
+    public PatientSketches day(long day) {
+        Day entry = days.get(Math.floorMod(day, DAY.slots()));
+        return entry != null && entry.day() == day ? entry.sketches() : null;
+    }
+
+    /* Snapshots (see 'AggregateSnapshotter'): the all-time sketches, then the days we have.
+       Callers make sure nothing is recorded meanwhile. */
+
+    int snapshotSize() {
+        int size = allTime.serializedSize() + Integer.BYTES;
+        for (int slot = 0; slot < days.length(); slot++) {
+            Day entry = days.get(slot);
+            if (entry != null) {
+                size += Long.BYTES + entry.sketches().serializedSize();
+            }
+        }
+        return size;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        allTime.writeTo(buffer);
+        int count = 0;
+        for (int slot = 0; slot < days.length(); slot++) {
+            if (days.get(slot) != null) {
+                count++;
+            }
+        }
+        buffer.putInt(count);
+        for (int slot = 0; slot < days.length(); slot++) {
+            Day entry = days.get(slot);
+            if (entry != null) {
+                buffer.putLong(entry.day());
+                entry.sketches().writeTo(buffer);
+            }
+        }
+    }
+
+    static DailySketches readFrom(ByteBuffer buffer) {
+        DailySketches sketches = new DailySketches();
+        sketches.allTime.merge(PatientSketches.readFrom(buffer));
+        for (int i = buffer.getInt(); i > 0; i--) {
+            long day = buffer.getLong();
+            sketches.days.set(Math.floorMod(day, DAY.slots()), new Day(day, PatientSketches.readFrom(buffer)));
+        }
+        return sketches;
+    }
+
+    /** Takes over the state of a restored snapshot; only before anything was recorded */
+    void restore(DailySketches restored) {
+        allTime.merge(restored.allTime);
+        for (int slot = 0; slot < days.length(); slot++) {
+            days.set(slot, restored.days.get(slot));
+        }
+    }
+}
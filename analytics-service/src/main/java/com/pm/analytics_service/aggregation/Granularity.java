@@ -0,0 +1,52 @@
+package com.pm.analytics_service.aggregation;
+
+import java.time.Duration;
+
+/** The bucket sizes we count events in, and how many buckets of each we keep: a day of
+    minutes, a week of hours and 90 days. Buckets are aligned to the epoch (UTC), so a DAY
+    bucket is a UTC calendar day. */
+public enum Granularity {
+
+    MINUTE(Duration.ofMinutes(1), 24 * 60),
+    HOUR(Duration.ofHours(1), 7 * 24),
+    DAY(Duration.ofDays(1), 90);
+
+    private final long millis;
+    private final int slots;
+
+    Granularity(Duration size, int slots) {
+        this.millis = size.toMillis();
+        this.slots = slots;
+    }
+
+    public long millis() {
+        return millis;
+    }
+
+    public int slots() {
+        return slots;
+    }
+
+    /** How far back buckets of this granularity go */
+    public Duration span() {
+        return Duration.ofMillis(millis * slots);
+    }
+
+    public long bucketOf(long timestampMillis) {
+        return Math.floorDiv(timestampMillis, millis);
+    }
+
+    public long startOf(long bucket) {
+        return bucket * millis;
+    }
+
+    /** The finest granularity that still keeps 'window' worth of buckets, or null when it is too long */
+    public static Granularity finestCovering(Duration window) {
+        for (Granularity granularity : values()) {
+            if (granularity.span().compareTo(window) >= 0) {
+                return granularity;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,160 @@
+package com.pm.analytics_service.aggregation;
+
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import patient.events.PatientEvent;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/** The analytics state, updated by 'PatientEventBatchProcessor' for every event it consumes:
+    1. per event type (PATIENT_CREATED, PATIENT_UPDATED, ...), a 'WindowedCounter' with minute,
+       hour and day buckets; striped, because every processing thread counts into the same few.
+    2. per email domain, the registrations (PATIENT_CREATED events), in day buckets.
+    3. per day and overall, approximate distinct patients, distinct email domains and top
+       registration domains ('DailySketches'), which take the same memory however many
+       patients there are.
+    Events are counted at their record timestamp (when patient-service produced them), not when we
+    happen to consume them, so replaying the topic gives the same buckets.
+
+    Along with the counters we keep, per partition, the offset of the next record they don't
+    include yet. The consumer starts from there (see 'KafkaConsumer'), not from the committed
+    offsets, and skips records below it, so an event is counted once even when a batch is
+    delivered again. Consumer threads update under 'updateLock()', which they share; a snapshot
+    ('AggregateSnapshotter') takes it exclusively, so counters and offsets match. */
+@Component
+public class PatientEventAggregator {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientEventAggregator.class);
+
+    public static final String PATIENT_CREATED = "PATIENT_CREATED";
+    // Registrations of new domains once there are 'max-email-domains' of them
+    public static final String OTHER_DOMAINS = "(other)";
+
+    private final Map<String, WindowedCounter> byEventType = new ConcurrentHashMap<>();
+    private final Map<String, WindowedCounter> registrationsByDomain = new ConcurrentHashMap<>();
+    private final DailySketches sketches = new DailySketches();
+    private final Map<TopicPartition, Long> nextOffsets = new ConcurrentHashMap<>();
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final int stripes;
+    private final int maxEmailDomains;
+
+    public PatientEventAggregator(
+            @Value("${analytics.aggregation.stripes:0}") int stripes,
+            @Value("${analytics.aggregation.max-email-domains:10000}") int maxEmailDomains
+    ) {
+        // 0: one per CPU
+        this.stripes = stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors();
+        this.maxEmailDomains = maxEmailDomains;
+    }
+
+    public void record(PatientEvent event, long timestampMillis) {
+        String eventType = event.getEventType().isEmpty() ? "UNKNOWN" : event.getEventType();
+        counter(byEventType, eventType, type -> new WindowedCounter(stripes)).increment(timestampMillis);
+
+        String domain = emailDomain(event.getEmail());
+        boolean registration = PATIENT_CREATED.equals(eventType);
+        if (registration && domain != null) {
+            registrations(domain).increment(timestampMillis);
+        }
+        sketches.record(timestampMillis, event.getPatientId(), domain, registration);
+    }
+
+    /** Held while processing a batch; shared by the consumer threads, so they don't wait on each other */
+    public Lock updateLock() {
+        return stateLock.readLock();
+    }
+
+    /** The offset of the first record of the partition the counters don't include, or null for none */
+    public Long nextOffset(TopicPartition partition) {
+        return nextOffsets.get(partition);
+    }
+
+    public void consumed(TopicPartition partition, long nextOffset) {
+        nextOffsets.put(partition, nextOffset);
+    }
+
+    public Map<String, WindowedCounter> eventTypes() {
+        return byEventType;
+    }
+
+    public Map<String, WindowedCounter> emailDomains() {
+        return registrationsByDomain;
+    }
+
+    public DailySketches sketches() {
+        return sketches;
+    }
+
+    Lock snapshotLock() {
+        return stateLock.writeLock();
+    }
+
+    Map<TopicPartition, Long> nextOffsets() {
+        return nextOffsets;
+    }
+
+    int stripes() {
+        return stripes;
+    }
+
+    /** Replaces the state with a snapshot's; only before the consumer starts */
+    void restore(
+            Map<TopicPartition, Long> offsets,
+            Map<String, WindowedCounter> eventTypes,
+            Map<String, WindowedCounter> emailDomains,
+            DailySketches restoredSketches
+    ) {
+        nextOffsets.clear();
+        nextOffsets.putAll(offsets);
+        byEventType.clear();
+        byEventType.putAll(eventTypes);
+        registrationsByDomain.clear();
+        registrationsByDomain.putAll(emailDomains);
+        sketches.restore(restoredSketches);
+    }
+
+    private WindowedCounter registrations(String domain) {
+        WindowedCounter counter = registrationsByDomain.get(domain);
+        if (counter != null) {
+            return counter;
+        }
+        // Bounds the memory a flood of made-up domains can take; the check is racy, so the
+        // cap can be exceeded by a few, which is fine
+        if (registrationsByDomain.size() >= maxEmailDomains) {
+            if (!registrationsByDomain.containsKey(OTHER_DOMAINS)) {
+                log.warn("More than {} email domains; counting new ones as '{}'", maxEmailDomains, OTHER_DOMAINS);
+            }
+            domain = OTHER_DOMAINS;
+        }
+        return counter(registrationsByDomain, domain,
+                key -> new WindowedCounter(1, EnumSet.of(Granularity.DAY)));
+    }
+
+    // 'get' first: computeIfAbsent can lock the bin even when the key is there
+    private static WindowedCounter counter(
+            Map<String, WindowedCounter> counters,
+            String key,
+            Function<String, WindowedCounter> create
+    ) {
+        WindowedCounter counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, create);
+    }
+
+    private static String emailDomain(String email) {
+        int at = email.lastIndexOf('@');
+        if (at < 0 || at == email.length() - 1) {
+            return null;
+        }
+        return email.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,184 @@
+package com.pm.analytics_service.aggregation;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts events in time buckets of one or more granularities, without locks.
+
+    For every granularity we keep a ring of its last 'slots' buckets in an 'AtomicLongArray'.
+    Each slot is one long that packs the bucket number (high 28 bits) and its count (low 36 bits),
+    so moving a slot on to a new bucket and counting in it is a single compareAndSet: no reset
+    that could race with an increment, and no lock the consumer threads could wait on. An event
+    older than the bucket its slot already holds has fallen out of the ring and is only counted
+    in the total.
+
+    With 'stripes' > 1 every ring exists once per stripe and a thread always counts in the same
+    stripe (by thread id), so the threads processing different partitions don't keep failing each
+    other's compareAndSet on the same slot; reads add the stripes up. */
+public class WindowedCounter {
+
+    private static final int COUNT_BITS = 36;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    // 2^28 minutes since the epoch is in the 2480s
+    private static final long BUCKET_MASK = (1L << (64 - COUNT_BITS)) - 1;
+
+    private final int stripeMask;
+    // Indexed by Granularity.ordinal(); null for the granularities this counter doesn't keep
+    private final AtomicLongArray[] rings = new AtomicLongArray[Granularity.values().length];
+    private final LongAdder total = new LongAdder();
+
+    /** @param stripes rounded up to a power of two */
+    public WindowedCounter(int stripes, Set<Granularity> granularities) {
+        int stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripeMask = stripeCount - 1;
+        for (Granularity granularity : granularities) {
+            rings[granularity.ordinal()] = new AtomicLongArray(stripeCount * granularity.slots());
+        }
+    }
+
+    public WindowedCounter(int stripes) {
+        this(stripes, EnumSet.allOf(Granularity.class));
+    }
+
+    public void increment(long timestampMillis) {
+        total.increment();
+        int stripe = (int) Thread.currentThread().threadId() & stripeMask;
+        for (Granularity granularity : Granularity.values()) {
+            AtomicLongArray ring = rings[granularity.ordinal()];
+            if (ring == null) {
+                continue;
+            }
+            long bucket = granularity.bucketOf(timestampMillis) & BUCKET_MASK;
+            int index = stripe * granularity.slots() + (int) (bucket % granularity.slots());
+            while (true) {
+                long current = ring.get(index);
+                long currentBucket = current >>> COUNT_BITS;
+                long next;
+                if (currentBucket == bucket) {
+                    next = current + 1;
+                } else if (currentBucket < bucket) {
+                    next = (bucket << COUNT_BITS) | 1;
+                } else {
+                    break; // older than what the slot holds now: outside the ring
+                }
+                if (ring.compareAndSet(index, current, next)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    public boolean keeps(Granularity granularity) {
+        return rings[granularity.ordinal()] != null;
+    }
+
+    /** Every event counted, including the ones too old for the rings */
+    public long total() {
+        return total.sum();
+    }
+
+    /** The count of one bucket; 0 when it has already been overwritten by a newer one */
+    public long count(Granularity granularity, long bucket) {
+        AtomicLongArray ring = rings[granularity.ordinal()];
+        if (ring == null) {
+            throw new IllegalArgumentException("Not counted per " + granularity);
+        }
+        long masked = bucket & BUCKET_MASK;
+        int slot = (int) (masked % granularity.slots());
+        long count = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            long value = ring.get(stripe * granularity.slots() + slot);
+            if (value >>> COUNT_BITS == masked) {
+                count += value & COUNT_MASK;
+            }
+        }
+        return count;
+    }
+
+    /** The counts of the buckets 'from' to 'to' (both included), oldest first */
+    public long[] counts(Granularity granularity, long from, long to) {
+        long[] counts = new long[(int) (to - from + 1)];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = count(granularity, from + i);
+        }
+        return counts;
+    }
+
+    public long sum(Granularity granularity, long from, long to) {
+        long sum = 0;
+        for (long bucket = from; bucket <= to; bucket++) {
+            sum += count(granularity, bucket);
+        }
+        return sum;
+    }
+
+    /* Snapshots (see 'AggregateSnapshotter'): the total, which granularities we keep, then one
+       packed long per slot of each, with the stripes added up. Callers make sure nothing
+       increments meanwhile. A restored counter has it all in its first stripe. */
+
+    int snapshotSize() {
+        int size = Long.BYTES + Integer.BYTES;
+        for (Granularity granularity : Granularity.values()) {
+            if (keeps(granularity)) {
+                size += granularity.slots() * Long.BYTES;
+            }
+        }
+        return size;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putLong(total.sum());
+        int kept = 0;
+        for (Granularity granularity : Granularity.values()) {
+            if (keeps(granularity)) {
+                kept |= 1 << granularity.ordinal();
+            }
+        }
+        buffer.putInt(kept);
+        for (Granularity granularity : Granularity.values()) {
+            AtomicLongArray ring = rings[granularity.ordinal()];
+            if (ring == null) {
+                continue;
+            }
+            for (int slot = 0; slot < granularity.slots(); slot++) {
+                // The stripes can be on different buckets in a slot; the older ones are out of the ring
+                long bucket = 0;
+                long count = 0;
+                for (int stripe = 0; stripe <= stripeMask; stripe++) {
+                    long value = ring.get(stripe * granularity.slots() + slot);
+                    long valueBucket = value >>> COUNT_BITS;
+                    if (valueBucket > bucket) {
+                        bucket = valueBucket;
+                        count = value & COUNT_MASK;
+                    } else if (valueBucket == bucket) {
+                        count += value & COUNT_MASK;
+                    }
+                }
+                buffer.putLong((bucket << COUNT_BITS) | Math.min(count, COUNT_MASK));
+            }
+        }
+    }
+
+    static WindowedCounter readFrom(ByteBuffer buffer, int stripes) {
+        long total = buffer.getLong();
+        int kept = buffer.getInt();
+        Set<Granularity> granularities = EnumSet.noneOf(Granularity.class);
+        for (Granularity granularity : Granularity.values()) {
+            if ((kept & 1 << granularity.ordinal()) != 0) {
+                granularities.add(granularity);
+            }
+        }
+        WindowedCounter counter = new WindowedCounter(stripes, granularities);
+        counter.total.add(total);
+        for (Granularity granularity : granularities) {
+            AtomicLongArray ring = counter.rings[granularity.ordinal()];
+            for (int slot = 0; slot < granularity.slots(); slot++) {
+                ring.set(slot, buffer.getLong());
+            }
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,97 @@
+package com.pm.analytics_service.controller;
+
+import com.pm.analytics_service.aggregation.Granularity;
+import com.pm.analytics_service.dto.DistinctCountDTO;
+import com.pm.analytics_service.dto.EmailDomainCountDTO;
+import com.pm.analytics_service.dto.EventTypeCountDTO;
+import com.pm.analytics_service.dto.TopEmailDomainDTO;
+import com.pm.analytics_service.dto.WindowCountDTO;
+import com.pm.analytics_service.service.AggregationQueryService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+import java.util.List;
+
+/** Counts for dashboards, from what we consumed of the 'patient' topic (no need to page through
+    'GET /patients' and count rows). Windows are ISO-8601 durations: PT15M, PT1H, P7D, ... up to
+    90 days. Reached through the api-gateway as /api/analytics/**.
+
+    The unique-patients and email-domains/distinct|top endpoints are estimates from sketches (see
+    'PatientSketches'), in whole UTC days; without a 'window' they cover everything we consumed. */
+@RestController
+@RequestMapping("/analytics")
+public class AnalyticsController {
+
+    private final AggregationQueryService aggregationQueryService;
+
+    public AnalyticsController(AggregationQueryService aggregationQueryService) {
+        this.aggregationQueryService = aggregationQueryService;
+    }
+
+    /** Events per type in the sliding window ending now, plus the total since we started counting */
+    @GetMapping("/event-types")
+    public ResponseEntity<List<EventTypeCountDTO>> countByEventType(
+            @RequestParam(defaultValue = "PT1H") Duration window
+    ) {
+        return ResponseEntity.ok(aggregationQueryService.countByEventType(window));
+    }
+
+    /** The tumbling windows of one event type: the last 'limit' minutes, hours or days, oldest first */
+    @GetMapping("/event-types/{eventType}/buckets")
+    public ResponseEntity<List<WindowCountDTO>> buckets(
+            @PathVariable String eventType,
+            @RequestParam(defaultValue = "MINUTE") Granularity granularity,
+            @RequestParam(defaultValue = "60") int limit
+    ) {
+        return ResponseEntity.ok(aggregationQueryService.buckets(eventType, granularity, limit));
+    }
+
+    /** Registrations per email domain, most first; over all time without a 'window' */
+    @GetMapping("/email-domains")
+    public ResponseEntity<List<EmailDomainCountDTO>> topEmailDomains(
+            @RequestParam(required = false) Duration window,
+            @RequestParam(defaultValue = "20") int limit
+    ) {
+        return ResponseEntity.ok(aggregationQueryService.topEmailDomains(window, limit));
+    }
+
+    @GetMapping("/unique-patients")
+    public ResponseEntity<DistinctCountDTO> uniquePatients(
+            @RequestParam(required = false) Duration window
+    ) {
+        return ResponseEntity.ok(aggregationQueryService.uniquePatients(window));
+    }
+
+    @GetMapping("/unique-patients/daily")
+    public ResponseEntity<List<DistinctCountDTO>> uniquePatientsPerDay(
+            @RequestParam(defaultValue = "30") int days
+    ) {
+        return ResponseEntity.ok(aggregationQueryService.uniquePatientsPerDay(days));
+    }
+
+    @GetMapping("/email-domains/distinct")
+    public ResponseEntity<DistinctCountDTO> distinctEmailDomains(
+            @RequestParam(required = false) Duration window
+    ) {
+        return ResponseEntity.ok(aggregationQueryService.distinctEmailDomains(window));
+    }
+
+    @GetMapping("/email-domains/top")
+    public ResponseEntity<List<TopEmailDomainDTO>> approximateTopEmailDomains(
+            @RequestParam(required = false) Duration window,
+            @RequestParam(defaultValue = "10") int limit
+    ) {
+        return ResponseEntity.ok(aggregationQueryService.approximateTopEmailDomains(window, limit));
+    }
+
+    /** The raw sketches ('PatientSketches.toBytes'), to merge the partitions other replicas
+        consumed into ('PatientSketches.fromBytes' and 'merge') */
+    @GetMapping(value = "/sketches", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> sketches(
+            @RequestParam(required = false) Duration window
+    ) {
+        return ResponseEntity.ok(aggregationQueryService.sketches(window).toBytes());
+    }
+}
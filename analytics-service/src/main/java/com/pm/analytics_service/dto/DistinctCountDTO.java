@@ -0,0 +1,37 @@
+package com.pm.analytics_service.dto;
+
+import java.time.Instant;
+
+/** An estimated number of distinct values; 'windowStart' is null for everything we consumed.
+    'relativeStandardError' is the sketch's: about 68% of estimates are within it of the true
+    count, 95% within twice it. */
+public class DistinctCountDTO {
+
+    private final Instant windowStart;
+    private final Instant windowEnd;
+    private final long estimate;
+    private final double relativeStandardError;
+
+    public DistinctCountDTO(Instant windowStart, Instant windowEnd, long estimate, double relativeStandardError) {
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.estimate = estimate;
+        this.relativeStandardError = relativeStandardError;
+    }
+
+    public Instant getWindowStart() {
+        return windowStart;
+    }
+
+    public Instant getWindowEnd() {
+        return windowEnd;
+    }
+
+    public long getEstimate() {
+        return estimate;
+    }
+
+    public double getRelativeStandardError() {
+        return relativeStandardError;
+    }
+}
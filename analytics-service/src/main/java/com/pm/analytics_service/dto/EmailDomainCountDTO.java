@@ -0,0 +1,21 @@
+package com.pm.analytics_service.dto;
+
+/** How many patients registered with an email address of 'domain' */
+public class EmailDomainCountDTO {
+
+    private final String domain;
+    private final long registrations;
+
+    public EmailDomainCountDTO(String domain, long registrations) {
+        this.domain = domain;
+        this.registrations = registrations;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public long getRegistrations() {
+        return registrations;
+    }
+}
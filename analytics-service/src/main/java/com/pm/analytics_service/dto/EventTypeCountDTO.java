@@ -0,0 +1,41 @@
+package com.pm.analytics_service.dto;
+
+import java.time.Instant;
+
+/** How many events of a type there were in a sliding window ending now, and in total */
+public class EventTypeCountDTO {
+
+    private final String eventType;
+    private final Instant windowStart;
+    private final Instant windowEnd;
+    private final long count;
+    private final long total;
+
+    public EventTypeCountDTO(String eventType, Instant windowStart, Instant windowEnd, long count, long total) {
+        this.eventType = eventType;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.count = count;
+        this.total = total;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public Instant getWindowStart() {
+        return windowStart;
+    }
+
+    public Instant getWindowEnd() {
+        return windowEnd;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+}
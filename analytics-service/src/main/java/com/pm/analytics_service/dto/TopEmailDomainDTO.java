@@ -0,0 +1,34 @@
+package com.pm.analytics_service.dto;
+
+/** An estimated number of registrations with an email domain. The estimate is never too low,
+    and with probability 'confidence' at most 'maxOverestimate' too high. */
+public class TopEmailDomainDTO {
+
+    private final String domain;
+    private final long estimatedRegistrations;
+    private final long maxOverestimate;
+    private final double confidence;
+
+    public TopEmailDomainDTO(String domain, long estimatedRegistrations, long maxOverestimate, double confidence) {
+        this.domain = domain;
+        this.estimatedRegistrations = estimatedRegistrations;
+        this.maxOverestimate = maxOverestimate;
+        this.confidence = confidence;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public long getEstimatedRegistrations() {
+        return estimatedRegistrations;
+    }
+
+    public long getMaxOverestimate() {
+        return maxOverestimate;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+}
@@ -0,0 +1,29 @@
+package com.pm.analytics_service.dto;
+
+import java.time.Instant;
+
+/** The count of one bucket (tumbling window), from 'start' included to 'end' excluded */
+public class WindowCountDTO {
+
+    private final Instant start;
+    private final Instant end;
+    private final long count;
+
+    public WindowCountDTO(Instant start, Instant end, long count) {
+        this.start = start;
+        this.end = end;
+        this.count = count;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,7 @@
+package com.pm.analytics_service.exception;
+
+public class InvalidWindowException extends RuntimeException {
+    public InvalidWindowException(String message) {
+        super(message);
+    }
+}
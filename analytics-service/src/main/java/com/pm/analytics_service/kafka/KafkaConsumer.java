@@ -1,37 +1,69 @@
 package com.pm.analytics_service.kafka;
 
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.pm.analytics_service.aggregation.PatientEventAggregator;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
-import patient.events.PatientEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /** With the '@Service' annotation, our 'KafkaConsumer' will start up when our
- * application does and our 'consumeEvent' method will start consuming event
+ * application does and our 'consumeEvents' method will start consuming events
  * with the help of the '@KafkaListener' annotation. */
 @Service
-public class KafkaConsumer {
+public class KafkaConsumer implements ConsumerSeekAware {
 
     private static final Logger log = LoggerFactory.getLogger(KafkaConsumer.class);
 
+    private final PatientEventBatchProcessor batchProcessor;
+    private final PatientEventAggregator aggregator;
+
+    public KafkaConsumer(PatientEventBatchProcessor batchProcessor, PatientEventAggregator aggregator) {
+        this.batchProcessor = batchProcessor;
+        this.aggregator = aggregator;
+    }
+
+    /** Our aggregates live in memory, so the committed offsets don't tell where to continue: on a
+        restart they are empty again, or restored from a snapshot that is older than the last commit.
+        We start every partition we get right after the last record the aggregates include, and
+        from the beginning when they include none of it. */
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        List<TopicPartition> fromBeginning = new ArrayList<>();
+        for (TopicPartition partition : assignments.keySet()) {
+            Long nextOffset = aggregator.nextOffset(partition);
+            if (nextOffset != null) {
+                callback.seek(partition.topic(), partition.partition(), nextOffset);
+            } else {
+                fromBeginning.add(partition);
+            }
+        }
+        if (!fromBeginning.isEmpty()) {
+            callback.seekToBeginning(fromBeginning);
+        }
+        log.info("Assigned {}; consuming {} of them from the beginning", assignments.keySet(), fromBeginning);
+    }
+
     /** 1. We use the '@KafkaListener' to specific the type (i.e., topics) of event
            we want to listen to, and the 'groupId' tells kafka who this consumer is.
-        2. We'll be receiving the event as a byte array so we have to convert to the
-           PatientEvent object. */
+        2. The listener is a batch listener ('spring.kafka.listener.type=batch'): each call gets
+           everything one poll returned (up to 'max-poll-records'), from the partitions this
+           container thread owns. 'spring.kafka.listener.concurrency' sets how many threads
+           (consumers) share the topic's partitions.
+        3. The offsets are committed once for the whole batch, and only after every record was
+           processed ('ack-mode=manual'). If processing throws, nothing is committed and the
+           batch is delivered again. */
     @KafkaListener(topics = "patient", groupId = "analytics-service")
-    public void consumeEvent(byte[] event) {
-        try {
-            PatientEvent patientEvent = PatientEvent.parseFrom(event);
-            // ... perform analytics logic here
-            log.info(
-               "Received patient even: [PatientId={}, PatientName={}, PatientEmail{}]",
-               patientEvent.getPatientId(), patientEvent.getName(), patientEvent.getEmail()
-            );
-        } catch (InvalidProtocolBufferException e) {
-            log.error("Error deserializing event {}", e.getMessage());
-        }
+    public void consumeEvents(List<ConsumerRecord<String, byte[]>> records, Acknowledgment acknowledgment) {
+        int processed = batchProcessor.process(records);
+        acknowledgment.acknowledge();
+        log.debug("Processed {} of {} patient events", processed, records.size());
     }
 }
-
-
@@ -0,0 +1,151 @@
+package com.pm.analytics_service.kafka;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.pm.analytics_service.aggregation.PatientEventAggregator;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import patient.events.PatientEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/** Processes one poll's worth of records from the 'patient' topic. The records of each partition
+    are handled in order on one thread, and different partitions in parallel: a batch with records
+    of 4 partitions runs on the listener thread plus 3 threads of our pool. A batch of a single
+    partition (e.g. when the container concurrency matches the partition count) stays on the
+    listener thread. 'process' only returns once every record is done, so the listener can then
+    commit the whole batch. Records the aggregates already include (below
+    'PatientEventAggregator.nextOffset') are skipped. */
+@Component
+public class PatientEventBatchProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientEventBatchProcessor.class);
+
+    // Null when 'analytics.kafka.processing-threads' is 0 or 1; then everything runs on the listener thread
+    private final ExecutorService executor;
+    private final PatientEventAggregator aggregator;
+
+    public PatientEventBatchProcessor(
+            @Value("${analytics.kafka.processing-threads:8}") int threads,
+            PatientEventAggregator aggregator
+    ) {
+        this.aggregator = aggregator;
+        if (threads <= 1) {
+            this.executor = null;
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads - 1, runnable -> {
+            Thread thread = new Thread(runnable, "patient-events-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return how many events were processed; records that can't be parsed are logged and skipped
+     * @throws RuntimeException when processing a record failed, so the batch is not committed
+     */
+    public int process(List<ConsumerRecord<String, byte[]>> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        Lock lock = aggregator.updateLock();
+        lock.lock();
+        try {
+            return processByPartition(records);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int processByPartition(List<ConsumerRecord<String, byte[]>> records) {
+        Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> byPartition = new LinkedHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            byPartition.computeIfAbsent(new TopicPartition(record.topic(), record.partition()), tp -> new ArrayList<>())
+                    .add(record);
+        }
+        if (executor == null || byPartition.size() == 1) {
+            return processPartition(records);
+        }
+
+        List<List<ConsumerRecord<String, byte[]>>> partitions = new ArrayList<>(byPartition.values());
+        List<CompletableFuture<Integer>> others = new ArrayList<>(partitions.size() - 1);
+        for (List<ConsumerRecord<String, byte[]>> partition : partitions.subList(1, partitions.size())) {
+            others.add(CompletableFuture.supplyAsync(() -> processPartition(partition), executor));
+        }
+        // The listener thread takes the first partition itself instead of just waiting
+        int processed = processPartition(partitions.get(0));
+        try {
+            for (CompletableFuture<Integer> other : others) {
+                processed += other.join();
+            }
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+        }
+        return processed;
+    }
+
+    private int processPartition(List<ConsumerRecord<String, byte[]>> records) {
+        ConsumerRecord<String, byte[]> first = records.getFirst();
+        TopicPartition partition = new TopicPartition(first.topic(), first.partition());
+        Long counted = aggregator.nextOffset(partition);
+        long nextOffset = counted != null ? counted : -1;
+        int processed = 0;
+        try {
+            for (ConsumerRecord<String, byte[]> record : records) {
+                if (record.offset() < nextOffset) {
+                    continue; // counted before this batch was delivered again
+                }
+                if (processRecord(record)) {
+                    processed++;
+                }
+                nextOffset = record.offset() + 1;
+            }
+        } finally {
+            // Also when a record failed, so the ones before it aren't counted again
+            if (nextOffset >= 0) {
+                aggregator.consumed(partition, nextOffset);
+            }
+        }
+        return processed;
+    }
+
+    /** @return false when the record can't be parsed; it is logged and skipped for good */
+    private boolean processRecord(ConsumerRecord<String, byte[]> record) {
+        try {
+            PatientEvent patientEvent = PatientEvent.parseFrom(record.value());
+            // Counted at the time patient-service produced it, see 'PatientEventAggregator'
+            aggregator.record(patientEvent, record.timestamp());
+            log.debug(
+               "Received patient event: [PatientId={}, PatientName={}, PatientEmail={}]",
+               patientEvent.getPatientId(), patientEvent.getName(), patientEvent.getEmail()
+            );
+            return true;
+        } catch (InvalidProtocolBufferException e) {
+            log.error("Error deserializing event at {}-{}@{}: {}",
+                    record.topic(), record.partition(), record.offset(), e.getMessage());
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.pm.analytics_service.service;
+
+import com.pm.analytics_service.aggregation.Granularity;
+import com.pm.analytics_service.aggregation.PatientEventAggregator;
+import com.pm.analytics_service.aggregation.WindowedCounter;
+import com.pm.analytics_service.dto.DistinctCountDTO;
+import com.pm.analytics_service.dto.EmailDomainCountDTO;
+import com.pm.analytics_service.dto.EventTypeCountDTO;
+import com.pm.analytics_service.dto.TopEmailDomainDTO;
+import com.pm.analytics_service.dto.WindowCountDTO;
+import com.pm.analytics_service.exception.InvalidWindowException;
+import com.pm.analytics_service.sketch.CountMinSketch;
+import com.pm.analytics_service.sketch.HeavyHitters;
+import com.pm.analytics_service.sketch.HyperLogLog;
+import com.pm.analytics_service.sketch.PatientSketches;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/** Reads the counters of 'PatientEventAggregator'. Nothing here blocks the consumer: the reads
+    are plain volatile reads of the counters, at most a few thousand per request.
+
+    Sliding windows move in steps of the finest granularity that keeps enough buckets for them:
+    "the last hour" is the current minute plus the 59 before it, "the last 3 days" the current
+    hour plus the 71 before it. The approximate aggregates (sketches) are kept per UTC day, so
+    their windows are whole days: P1D is today, P30D today and the 29 days before. */
+@Service
+public class AggregationQueryService {
+
+    private final PatientEventAggregator aggregator;
+
+    public AggregationQueryService(PatientEventAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    public List<EventTypeCountDTO> countByEventType(Duration window) {
+        Granularity granularity = granularityFor(window);
+        long now = System.currentTimeMillis();
+        long to = granularity.bucketOf(now);
+        long from = to - bucketsIn(window, granularity) + 1;
+
+        List<EventTypeCountDTO> counts = new ArrayList<>();
+        for (Map.Entry<String, WindowedCounter> entry : aggregator.eventTypes().entrySet()) {
+            WindowedCounter counter = entry.getValue();
+            counts.add(new EventTypeCountDTO(
+                    entry.getKey(),
+                    Instant.ofEpochMilli(granularity.startOf(from)),
+                    Instant.ofEpochMilli(now),
+                    counter.sum(granularity, from, to),
+                    counter.total()
+            ));
+        }
+        counts.sort(Comparator.comparing(EventTypeCountDTO::getEventType));
+        return counts;
+    }
+
+    /** The last 'limit' buckets of an event type up to the current one, oldest first;
+        all zero for a type we haven't seen (yet) */
+    public List<WindowCountDTO> buckets(String eventType, Granularity granularity, int limit) {
+        int size = Math.clamp(limit, 1, granularity.slots());
+        long to = granularity.bucketOf(System.currentTimeMillis());
+        long from = to - size + 1;
+        WindowedCounter counter = aggregator.eventTypes().get(eventType);
+        long[] counts = counter != null ? counter.counts(granularity, from, to) : new long[size];
+
+        List<WindowCountDTO> buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long start = granularity.startOf(from + i);
+            buckets.add(new WindowCountDTO(
+                    Instant.ofEpochMilli(start), Instant.ofEpochMilli(start + granularity.millis()), counts[i]
+            ));
+        }
+        return buckets;
+    }
+
+    /** The domains with the most registrations, over the whole history when 'window' is null,
+        otherwise over the last days covering it (the domains are only counted per day) */
+    public List<EmailDomainCountDTO> topEmailDomains(Duration window, int limit) {
+        long[] days = window != null ? days(window) : null;
+
+        List<EmailDomainCountDTO> counts = new ArrayList<>();
+        for (Map.Entry<String, WindowedCounter> entry : aggregator.emailDomains().entrySet()) {
+            WindowedCounter counter = entry.getValue();
+            long registrations = window == null ? counter.total() : counter.sum(Granularity.DAY, days[0], days[1]);
+            if (registrations > 0) {
+                counts.add(new EmailDomainCountDTO(entry.getKey(), registrations));
+            }
+        }
+        counts.sort(Comparator.comparingLong(EmailDomainCountDTO::getRegistrations).reversed()
+                .thenComparing(EmailDomainCountDTO::getDomain));
+        return counts.subList(0, Math.min(Math.max(limit, 1), counts.size()));
+    }
+
+    public DistinctCountDTO uniquePatients(Duration window) {
+        return distinct(window, PatientSketches::patients);
+    }
+
+    /** Unique patients of each of the last 'days' days, oldest first */
+    public List<DistinctCountDTO> uniquePatientsPerDay(int days) {
+        int size = Math.clamp(days, 1, Granularity.DAY.slots());
+        long today = Granularity.DAY.bucketOf(System.currentTimeMillis());
+        List<DistinctCountDTO> counts = new ArrayList<>(size);
+        for (long day = today - size + 1; day <= today; day++) {
+            PatientSketches sketches = aggregator.sketches().day(day);
+            HyperLogLog patients = sketches != null ? sketches.patients() : new HyperLogLog();
+            long start = Granularity.DAY.startOf(day);
+            counts.add(new DistinctCountDTO(Instant.ofEpochMilli(start),
+                    Instant.ofEpochMilli(start + Granularity.DAY.millis()),
+                    patients.estimate(), patients.relativeStandardError()));
+        }
+        return counts;
+    }
+
+    public DistinctCountDTO distinctEmailDomains(Duration window) {
+        return distinct(window, PatientSketches::emailDomains);
+    }
+
+    /** The domains with the most registrations by the sketches: no limit on the number of domains
+        or on how far back (without a 'window'), but approximate */
+    public List<TopEmailDomainDTO> approximateTopEmailDomains(Duration window, int limit) {
+        HeavyHitters heavyHitters = sketches(window).registrationsByDomain();
+        CountMinSketch sketch = heavyHitters.sketch();
+        List<TopEmailDomainDTO> domains = new ArrayList<>();
+        for (HeavyHitters.Estimate estimate : heavyHitters.top(Math.clamp(limit, 1, heavyHitters.capacity()))) {
+            domains.add(new TopEmailDomainDTO(estimate.key(), estimate.count(), sketch.errorBound(), 1 - sketch.delta()));
+        }
+        return domains;
+    }
+
+    /** The sketches of the window (everything without one), merged into a new instance */
+    public PatientSketches sketches(Duration window) {
+        if (window == null) {
+            return aggregator.sketches().allTime().copy();
+        }
+        long[] days = days(window);
+        return aggregator.sketches().merged(days[0], days[1]);
+    }
+
+    private DistinctCountDTO distinct(Duration window, Function<PatientSketches, HyperLogLog> which) {
+        HyperLogLog sketch = which.apply(sketches(window));
+        Instant windowStart = window == null ? null : Instant.ofEpochMilli(Granularity.DAY.startOf(days(window)[0]));
+        return new DistinctCountDTO(windowStart, Instant.now(), sketch.estimate(), sketch.relativeStandardError());
+    }
+
+    // The first and last day of the window
+    private static long[] days(Duration window) {
+        granularityFor(window); // only to check it
+        long today = Granularity.DAY.bucketOf(System.currentTimeMillis());
+        return new long[] {today - bucketsIn(window, Granularity.DAY) + 1, today};
+    }
+
+    private static Granularity granularityFor(Duration window) {
+        if (window.isNegative() || window.isZero()) {
+            throw new InvalidWindowException("The window must be positive");
+        }
+        Granularity granularity = Granularity.finestCovering(window);
+        if (granularity == null) {
+            throw new InvalidWindowException("The window can be at most " + Granularity.DAY.span().toDays() + " days");
+        }
+        return granularity;
+    }
+
+    private static long bucketsIn(Duration window, Granularity granularity) {
+        return Math.ceilDiv(window.toMillis(), granularity.millis());
+    }
+}
@@ -0,0 +1,24 @@
+package com.pm.analytics_service.sketch;
+
+/** The 64-bit hash all sketches use: FNV-1a over the chars, then MurmurHash3's finalizer so every
+    output bit depends on every input bit (HyperLogLog takes its register from the top bits and its
+    rank from the rest). Sketches can only be merged when they hashed the same way. */
+final class Hashing {
+
+    private Hashing() {
+    }
+
+    static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,161 @@
+package com.pm.analytics_service.sketch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The most frequent keys of a stream: a 'CountMinSketch' counts every key, and we remember the
+    'capacity' keys with the highest estimates as candidates. A key that is not a candidate
+    replaces the weakest one once its estimate is higher.
+
+    Estimates carry the sketch's error (at most 'errorBound()' too high, see 'CountMinSketch'),
+    and a key that is only a little more frequent than the weakest candidate can be missing. A
+    key well above N / capacity of the counts gets in: its estimate is at least its count, and not
+    all candidates can be that high.
+
+    Merging adds the sketches and keeps the best 'capacity' of both candidate sets, re-estimated
+    on the merged sketch. Adding a key that is already a candidate, or that can't beat the weakest
+    one, takes no lock; only replacing a candidate does. */
+public class HeavyHitters {
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    /** A candidate with its estimated count */
+    public record Estimate(String key, long count) {}
+
+    private final CountMinSketch sketch;
+    private final int capacity;
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+    // Estimate of the weakest candidate when we last replaced one; a newcomer must beat it
+    private volatile long admissionThreshold;
+
+    public HeavyHitters(int capacity, CountMinSketch sketch) {
+        this.capacity = capacity;
+        this.sketch = sketch;
+    }
+
+    public HeavyHitters() {
+        this(DEFAULT_CAPACITY, new CountMinSketch());
+    }
+
+    public void add(String key) {
+        long hash = Hashing.hash64(key);
+        sketch.addHash(hash, 1);
+        if (candidates.contains(key)) {
+            return;
+        }
+        long estimate = sketch.estimateHash(hash);
+        if (candidates.size() >= capacity && estimate <= admissionThreshold) {
+            return;
+        }
+        synchronized (this) {
+            admit(key, estimate);
+        }
+    }
+
+    /** The candidates with the highest estimates, highest first */
+    public List<Estimate> top(int limit) {
+        List<Estimate> estimates = new ArrayList<>(candidates.size());
+        for (String candidate : candidates) {
+            estimates.add(new Estimate(candidate, sketch.estimate(candidate)));
+        }
+        estimates.sort(Comparator.comparingLong(Estimate::count).reversed().thenComparing(Estimate::key));
+        return estimates.subList(0, Math.min(limit, estimates.size()));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public CountMinSketch sketch() {
+        return sketch;
+    }
+
+    public void merge(HeavyHitters other) {
+        sketch.merge(other.sketch);
+        synchronized (this) {
+            candidates.addAll(other.candidates);
+            refreshCandidates();
+        }
+    }
+
+    public HeavyHitters copy() {
+        HeavyHitters copy = new HeavyHitters(capacity, new CountMinSketch(sketch.width(), sketch.depth()));
+        copy.merge(this);
+        return copy;
+    }
+
+    int serializedSize() {
+        int size = Integer.BYTES * 2 + sketch.serializedSize();
+        for (String candidate : candidates) {
+            size += Integer.BYTES + candidate.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        sketch.writeTo(buffer);
+        buffer.putInt(capacity);
+        // Sized before, so the candidates must not change in between; callers see to that
+        List<String> keys = List.copyOf(candidates);
+        buffer.putInt(keys.size());
+        for (String key : keys) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    static HeavyHitters readFrom(ByteBuffer buffer) {
+        CountMinSketch sketch = CountMinSketch.readFrom(buffer);
+        HeavyHitters heavyHitters = new HeavyHitters(buffer.getInt(), sketch);
+        for (int i = buffer.getInt(); i > 0; i--) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            heavyHitters.candidates.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        heavyHitters.refreshCandidates();
+        return heavyHitters;
+    }
+
+    // Keeps the best 'capacity' candidates and sets the threshold to the weakest of them
+    private void refreshCandidates() {
+        List<Estimate> best = top(capacity);
+        candidates.retainAll(best.stream().map(Estimate::key).toList());
+        admissionThreshold = best.size() < capacity ? 0 : best.getLast().count();
+    }
+
+    // Called with the lock held
+    private void admit(String key, long estimate) {
+        if (candidates.contains(key)) {
+            return;
+        }
+        if (candidates.size() < capacity) {
+            candidates.add(key);
+            return;
+        }
+        String weakest = null;
+        long weakestCount = Long.MAX_VALUE;
+        long runnerUp = Long.MAX_VALUE;
+        for (String candidate : candidates) {
+            long count = sketch.estimate(candidate);
+            if (count < weakestCount) {
+                runnerUp = weakestCount;
+                weakest = candidate;
+                weakestCount = count;
+            } else if (count < runnerUp) {
+                runnerUp = count;
+            }
+        }
+        if (estimate > weakestCount) {
+            candidates.remove(weakest);
+            candidates.add(key);
+            admissionThreshold = Math.min(runnerUp, estimate);
+        } else {
+            admissionThreshold = weakestCount;
+        }
+    }
+}
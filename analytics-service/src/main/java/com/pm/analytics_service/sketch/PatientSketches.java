@@ -0,0 +1,97 @@
+package com.pm.analytics_service.sketch;
+
+import java.nio.ByteBuffer;
+
+/** The approximate aggregates of a stretch of patient events (a day, or all of them):
+    1. distinct patients (by patientId),
+    2. distinct email domains,
+    3. the email domains with the most registrations.
+    About 100 KB whatever the number of patients. Mergeable: 'merge' gives the sketches of both
+    stretches together, e.g. days into a month, or what two replicas consumed into the whole topic
+    ('toBytes' / 'fromBytes' carry them between processes). */
+public class PatientSketches {
+
+    private static final int FORMAT = 1;
+
+    private final HyperLogLog patients;
+    private final HyperLogLog emailDomains;
+    private final HeavyHitters registrationsByDomain;
+
+    public PatientSketches() {
+        this(new HyperLogLog(), new HyperLogLog(), new HeavyHitters());
+    }
+
+    private PatientSketches(HyperLogLog patients, HyperLogLog emailDomains, HeavyHitters registrationsByDomain) {
+        this.patients = patients;
+        this.emailDomains = emailDomains;
+        this.registrationsByDomain = registrationsByDomain;
+    }
+
+    /** @param emailDomain null when the event has no (valid) email */
+    public void record(String patientId, String emailDomain, boolean registration) {
+        if (!patientId.isEmpty()) {
+            patients.add(patientId);
+        }
+        if (emailDomain != null) {
+            emailDomains.add(emailDomain);
+            if (registration) {
+                registrationsByDomain.add(emailDomain);
+            }
+        }
+    }
+
+    public HyperLogLog patients() {
+        return patients;
+    }
+
+    public HyperLogLog emailDomains() {
+        return emailDomains;
+    }
+
+    public HeavyHitters registrationsByDomain() {
+        return registrationsByDomain;
+    }
+
+    public void merge(PatientSketches other) {
+        patients.merge(other.patients);
+        emailDomains.merge(other.emailDomains);
+        registrationsByDomain.merge(other.registrationsByDomain);
+    }
+
+    public PatientSketches copy() {
+        return new PatientSketches(patients.copy(), emailDomains.copy(), registrationsByDomain.copy());
+    }
+
+    public int serializedSize() {
+        return Integer.BYTES + patients.serializedSize() + emailDomains.serializedSize()
+                + registrationsByDomain.serializedSize();
+    }
+
+    /** Nothing may be recorded meanwhile (the candidates are sized first); copy a live instance first */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(FORMAT);
+        patients.writeTo(buffer);
+        emailDomains.writeTo(buffer);
+        registrationsByDomain.writeTo(buffer);
+    }
+
+    public static PatientSketches readFrom(ByteBuffer buffer) {
+        int format = buffer.getInt();
+        if (format != FORMAT) {
+            throw new IllegalArgumentException("Unknown sketch format " + format);
+        }
+        return new PatientSketches(
+                HyperLogLog.readFrom(buffer), HyperLogLog.readFrom(buffer), HeavyHitters.readFrom(buffer)
+        );
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+        writeTo(buffer);
+        return buffer.array();
+    }
+
+    public static PatientSketches fromBytes(byte[] bytes) {
+        return readFrom(ByteBuffer.wrap(bytes));
+    }
+}
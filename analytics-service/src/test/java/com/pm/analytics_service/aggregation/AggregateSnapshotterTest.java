@@ -0,0 +1,91 @@
+package com.pm.analytics_service.aggregation;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import patient.events.PatientEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static com.pm.analytics_service.aggregation.Granularity.DAY;
+import static com.pm.analytics_service.aggregation.Granularity.MINUTE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AggregateSnapshotterTest {
+
+	private static final long NOW = Instant.parse("2026-01-01T10:15:30Z").toEpochMilli();
+	private static final TopicPartition PARTITION_0 = new TopicPartition("patient", 0);
+	private static final TopicPartition PARTITION_1 = new TopicPartition("patient", 1);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void restoresWhatItWrote() throws IOException {
+		PatientEventAggregator aggregator = new PatientEventAggregator(4, 100);
+		AggregateSnapshotter snapshotter = new AggregateSnapshotter(aggregator, directory.toString());
+		for (int i = 0; i < 1000; i++) {
+			aggregator.record(event("patient-" + i, "PATIENT_CREATED", "p" + i + "@domain" + (i % 3) + ".com"), NOW);
+		}
+		aggregator.record(event("patient-0", "PATIENT_UPDATED", "p0@domain0.com"), NOW - DAY.millis());
+		aggregator.consumed(PARTITION_0, 600);
+		aggregator.consumed(PARTITION_1, 401);
+		snapshotter.snapshot();
+
+		PatientEventAggregator restored = new PatientEventAggregator(4, 100);
+		new AggregateSnapshotter(restored, directory.toString());
+
+		assertThat(restored.nextOffset(PARTITION_0)).isEqualTo(600);
+		assertThat(restored.nextOffset(PARTITION_1)).isEqualTo(401);
+		assertThat(restored.eventTypes()).containsOnlyKeys("PATIENT_CREATED", "PATIENT_UPDATED");
+		assertThat(restored.eventTypes().get("PATIENT_CREATED").count(MINUTE, MINUTE.bucketOf(NOW))).isEqualTo(1000);
+		assertThat(restored.eventTypes().get("PATIENT_UPDATED").count(DAY, DAY.bucketOf(NOW) - 1)).isEqualTo(1);
+		assertThat(restored.emailDomains()).containsOnlyKeys("domain0.com", "domain1.com", "domain2.com");
+		assertThat(restored.emailDomains().get("domain0.com").count(DAY, DAY.bucketOf(NOW))).isEqualTo(334);
+		assertThat(restored.sketches().allTime().patients().estimate())
+				.isEqualTo(aggregator.sketches().allTime().patients().estimate());
+		assertThat(restored.sketches().day(DAY.bucketOf(NOW)).emailDomains().estimate()).isEqualTo(3);
+	}
+
+	@Test
+	void ignoresACorruptSnapshot() throws IOException {
+		PatientEventAggregator aggregator = new PatientEventAggregator(1, 100);
+		AggregateSnapshotter snapshotter = new AggregateSnapshotter(aggregator, directory.toString());
+		aggregator.record(event("patient-1", "PATIENT_CREATED", "p1@domain.com"), NOW);
+		aggregator.consumed(PARTITION_0, 1);
+		snapshotter.snapshot();
+
+		Path file = directory.resolve("aggregates.snapshot");
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(file, bytes);
+
+		PatientEventAggregator restored = new PatientEventAggregator(1, 100);
+		new AggregateSnapshotter(restored, directory.toString());
+
+		assertThat(restored.nextOffset(PARTITION_0)).isNull();
+		assertThat(restored.eventTypes()).isEmpty();
+		assertThat(restored.sketches().allTime().patients().estimate()).isZero();
+	}
+
+	@Test
+	void skipsTheWriteWhenNothingWasConsumed() throws IOException {
+		PatientEventAggregator aggregator = new PatientEventAggregator(1, 100);
+		AggregateSnapshotter snapshotter = new AggregateSnapshotter(aggregator, directory.toString());
+
+		snapshotter.snapshot();
+
+		assertThat(directory.resolve("aggregates.snapshot")).doesNotExist();
+	}
+
+	private static PatientEvent event(String patientId, String eventType, String email) {
+		return PatientEvent.newBuilder()
+				.setPatientId(patientId)
+				.setEventType(eventType)
+				.setEmail(email)
+				.build();
+	}
+}
@@ -0,0 +1,127 @@
+package com.pm.analytics_service.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static com.pm.analytics_service.aggregation.Granularity.DAY;
+import static com.pm.analytics_service.aggregation.Granularity.HOUR;
+import static com.pm.analytics_service.aggregation.Granularity.MINUTE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class WindowedCounterTest {
+
+	private static final long NOW = Instant.parse("2026-01-01T10:15:30Z").toEpochMilli();
+
+	@Test
+	void countsInTheBucketsOfEveryGranularity() {
+		WindowedCounter counter = new WindowedCounter(1);
+		counter.increment(NOW);
+		counter.increment(NOW + 1000);
+		counter.increment(NOW + MINUTE.millis());
+
+		long minute = MINUTE.bucketOf(NOW);
+		assertThat(counter.counts(MINUTE, minute - 1, minute + 1)).containsExactly(0, 2, 1);
+		assertThat(counter.count(HOUR, HOUR.bucketOf(NOW))).isEqualTo(3);
+		assertThat(counter.count(DAY, DAY.bucketOf(NOW))).isEqualTo(3);
+		assertThat(counter.total()).isEqualTo(3);
+	}
+
+	@Test
+	void aNewerBucketTakesOverTheSlotOfTheOldOne() {
+		WindowedCounter counter = new WindowedCounter(1);
+		long minute = MINUTE.bucketOf(NOW);
+		// A day of minutes later: the same slot of the minute ring
+		long dayLater = NOW + MINUTE.span().toMillis();
+		counter.increment(NOW);
+		counter.increment(NOW);
+		counter.increment(dayLater);
+
+		assertThat(counter.count(MINUTE, minute)).isZero();
+		assertThat(counter.count(MINUTE, minute + MINUTE.slots())).isEqualTo(1);
+		assertThat(counter.sum(MINUTE, minute + MINUTE.slots() - 1, minute + MINUTE.slots())).isEqualTo(1);
+		// The hour and day rings still go back that far
+		assertThat(counter.count(HOUR, HOUR.bucketOf(NOW))).isEqualTo(2);
+		assertThat(counter.count(DAY, DAY.bucketOf(NOW))).isEqualTo(2);
+
+		// A late event for the overwritten minute is out of the minute ring, but not of the others
+		counter.increment(NOW);
+		assertThat(counter.count(MINUTE, minute)).isZero();
+		assertThat(counter.count(MINUTE, minute + MINUTE.slots())).isEqualTo(1);
+		assertThat(counter.count(HOUR, HOUR.bucketOf(NOW))).isEqualTo(3);
+		assertThat(counter.total()).isEqualTo(4);
+	}
+
+	@Test
+	void readsAddTheStripesUp() throws InterruptedException {
+		int stripes = 4;
+		int perThread = 200_000;
+		WindowedCounter counter = new WindowedCounter(stripes);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		Set<Long> stripesUsed = new HashSet<>();
+		for (int i = 0; i < 2 * stripes; i++) {
+			Thread thread = Thread.ofPlatform().unstarted(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				for (int n = 0; n < perThread; n++) {
+					counter.increment(NOW);
+				}
+			});
+			threads.add(thread);
+			stripesUsed.add(thread.threadId() & (stripes - 1));
+		}
+		threads.forEach(Thread::start);
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// Consecutive thread ids: every stripe got counts
+		assertThat(stripesUsed).hasSize(stripes);
+		long expected = (long) threads.size() * perThread;
+		assertThat(counter.count(MINUTE, MINUTE.bucketOf(NOW))).isEqualTo(expected);
+		assertThat(counter.sum(HOUR, HOUR.bucketOf(NOW) - 1, HOUR.bucketOf(NOW))).isEqualTo(expected);
+		assertThat(counter.count(DAY, DAY.bucketOf(NOW))).isEqualTo(expected);
+		assertThat(counter.total()).isEqualTo(expected);
+
+		// A snapshot adds the stripes up too
+		WindowedCounter restored = roundTrip(counter, 1);
+		assertThat(restored.count(MINUTE, MINUTE.bucketOf(NOW))).isEqualTo(expected);
+		assertThat(restored.total()).isEqualTo(expected);
+	}
+
+	@Test
+	void snapshotKeepsTheGranularitiesAndCounts() {
+		WindowedCounter counter = new WindowedCounter(1, EnumSet.of(DAY));
+		counter.increment(NOW);
+		counter.increment(NOW - DAY.millis());
+
+		WindowedCounter restored = roundTrip(counter, 2);
+
+		assertThat(restored.keeps(DAY)).isTrue();
+		assertThat(restored.keeps(MINUTE)).isFalse();
+		assertThat(restored.counts(DAY, DAY.bucketOf(NOW) - 1, DAY.bucketOf(NOW))).containsExactly(1, 1);
+		assertThat(restored.total()).isEqualTo(2);
+		assertThatIllegalArgumentException().isThrownBy(() -> restored.count(MINUTE, MINUTE.bucketOf(NOW)));
+	}
+
+	private static WindowedCounter roundTrip(WindowedCounter counter, int stripes) {
+		ByteBuffer buffer = ByteBuffer.allocate(counter.snapshotSize());
+		counter.writeTo(buffer);
+		assertThat(buffer.hasRemaining()).isFalse();
+		return WindowedCounter.readFrom(buffer.flip(), stripes);
+	}
+}
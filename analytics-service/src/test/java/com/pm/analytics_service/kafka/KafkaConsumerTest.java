@@ -0,0 +1,64 @@
+package com.pm.analytics_service.kafka;
+
+import com.pm.analytics_service.aggregation.AggregateSnapshotter;
+import com.pm.analytics_service.aggregation.PatientEventAggregator;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.listener.ConsumerSeekAware.ConsumerSeekCallback;
+import patient.events.PatientEvent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+class KafkaConsumerTest {
+
+	private static final TopicPartition PARTITION_0 = new TopicPartition("patient", 0);
+	private static final TopicPartition PARTITION_1 = new TopicPartition("patient", 1);
+	private static final TopicPartition PARTITION_2 = new TopicPartition("patient", 2);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void seeksToTheOffsetsOfTheRestoredSnapshot() throws IOException {
+		PatientEventAggregator before = new PatientEventAggregator(1, 100);
+		AggregateSnapshotter snapshotter = new AggregateSnapshotter(before, directory.toString());
+		before.record(PatientEvent.newBuilder().setPatientId("patient-1").setEventType("PATIENT_CREATED").build(), 0);
+		before.consumed(PARTITION_0, 600);
+		before.consumed(PARTITION_1, 401);
+		snapshotter.snapshot();
+
+		// A restart: the aggregates and offsets come back from the snapshot
+		PatientEventAggregator restored = new PatientEventAggregator(1, 100);
+		new AggregateSnapshotter(restored, directory.toString());
+		KafkaConsumer consumer = new KafkaConsumer(new PatientEventBatchProcessor(1, restored), restored);
+		ConsumerSeekCallback callback = mock(ConsumerSeekCallback.class);
+
+		consumer.onPartitionsAssigned(Map.of(PARTITION_0, 0L, PARTITION_1, 0L, PARTITION_2, 0L), callback);
+
+		verify(callback).seek("patient", 0, 600);
+		verify(callback).seek("patient", 1, 401);
+		// Nothing of partition 2 was counted yet
+		verify(callback).seekToBeginning(List.of(PARTITION_2));
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	void startsFromTheBeginningWithoutASnapshot() {
+		PatientEventAggregator aggregator = new PatientEventAggregator(1, 100);
+		KafkaConsumer consumer = new KafkaConsumer(new PatientEventBatchProcessor(1, aggregator), aggregator);
+		ConsumerSeekCallback callback = mock(ConsumerSeekCallback.class);
+
+		consumer.onPartitionsAssigned(Map.of(PARTITION_0, 42L), callback);
+
+		verify(callback).seekToBeginning(List.of(PARTITION_0));
+		verifyNoMoreInteractions(callback);
+	}
+}
@@ -0,0 +1,109 @@
+package com.pm.analytics_service.kafka;
+
+import com.pm.analytics_service.aggregation.PatientEventAggregator;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import patient.events.PatientEvent;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.pm.analytics_service.aggregation.Granularity.DAY;
+import static com.pm.analytics_service.aggregation.Granularity.HOUR;
+import static com.pm.analytics_service.aggregation.Granularity.MINUTE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PatientEventBatchProcessorTest {
+
+	private static final long NOW = Instant.parse("2026-01-01T10:15:30Z").toEpochMilli();
+	private static final int LISTENERS = 4;
+	private static final int PARTITIONS_PER_LISTENER = 2;
+	private static final int BATCHES = 500;
+	private static final int RECORDS_PER_PARTITION = 100;
+
+	private final PatientEventAggregator aggregator = new PatientEventAggregator(4, 100);
+	private final PatientEventBatchProcessor processor = new PatientEventBatchProcessor(8, aggregator);
+
+	@AfterEach
+	void shutdown() {
+		processor.shutdown();
+	}
+
+	// Like the listener containers: every listener thread owns its partitions, and the processor
+	// spreads each batch over its pool. All events fall in the same buckets, so the threads keep
+	// counting into the same slots
+	@Test
+	void concurrentBatchesDontLoseCounts() throws Exception {
+		ExecutorService listeners = Executors.newFixedThreadPool(LISTENERS);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> processed = new ArrayList<>();
+		for (int listener = 0; listener < LISTENERS; listener++) {
+			int firstPartition = listener * PARTITIONS_PER_LISTENER;
+			processed.add(listeners.submit(() -> {
+				start.await();
+				int count = 0;
+				for (int batch = 0; batch < BATCHES; batch++) {
+					count += processor.process(batch(firstPartition, batch));
+				}
+				return count;
+			}));
+		}
+		start.countDown();
+		int total = 0;
+		for (Future<Integer> future : processed) {
+			total += future.get();
+		}
+		listeners.shutdown();
+
+		int events = LISTENERS * PARTITIONS_PER_LISTENER * BATCHES * RECORDS_PER_PARTITION;
+		assertThat(total).isEqualTo(events);
+		// Every other event is a registration, spread over two domains
+		assertThat(aggregator.eventTypes().get("PATIENT_CREATED").count(MINUTE, MINUTE.bucketOf(NOW))).isEqualTo(events / 2);
+		assertThat(aggregator.eventTypes().get("PATIENT_UPDATED").count(HOUR, HOUR.bucketOf(NOW))).isEqualTo(events / 2);
+		assertThat(aggregator.eventTypes().get("PATIENT_UPDATED").total()).isEqualTo(events / 2);
+		assertThat(aggregator.emailDomains().get("a.com").count(DAY, DAY.bucketOf(NOW))).isEqualTo(events / 4);
+		assertThat(aggregator.emailDomains().get("b.com").count(DAY, DAY.bucketOf(NOW))).isEqualTo(events / 4);
+		for (int partition = 0; partition < LISTENERS * PARTITIONS_PER_LISTENER; partition++) {
+			assertThat(aggregator.nextOffset(new TopicPartition("patient", partition)))
+					.isEqualTo((long) BATCHES * RECORDS_PER_PARTITION);
+		}
+	}
+
+	@Test
+	void aBatchDeliveredAgainIsNotCountedTwice() {
+		processor.process(batch(0, 0));
+		processor.process(batch(0, 1));
+
+		assertThat(processor.process(batch(0, 1))).isZero();
+		assertThat(aggregator.eventTypes().get("PATIENT_CREATED").total())
+				.isEqualTo(PARTITIONS_PER_LISTENER * RECORDS_PER_PARTITION);
+	}
+
+	// The records of one poll: 'RECORDS_PER_PARTITION' of each partition the listener owns
+	private static List<ConsumerRecord<String, byte[]>> batch(int firstPartition, int batch) {
+		List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+		for (int partition = firstPartition; partition < firstPartition + PARTITIONS_PER_LISTENER; partition++) {
+			for (int i = 0; i < RECORDS_PER_PARTITION; i++) {
+				long offset = (long) batch * RECORDS_PER_PARTITION + i;
+				PatientEvent event = PatientEvent.newBuilder()
+						.setPatientId("patient-" + partition + "-" + offset)
+						.setEventType(offset % 2 == 0 ? "PATIENT_CREATED" : "PATIENT_UPDATED")
+						.setEmail(offset % 4 == 0 ? "p@a.com" : "p@b.com")
+						.build();
+				records.add(new ConsumerRecord<>("patient", partition, offset, NOW, TimestampType.CREATE_TIME,
+						-1, -1, null, event.toByteArray(), new RecordHeaders(), Optional.empty()));
+			}
+		}
+		return records;
+	}
+}
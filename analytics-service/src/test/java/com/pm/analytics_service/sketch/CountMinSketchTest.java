@@ -0,0 +1,56 @@
+package com.pm.analytics_service.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CountMinSketchTest {
+
+	@Test
+	void estimatesAreNeverLowAndRarelyMoreThanEpsilonNHigh() {
+		CountMinSketch sketch = new CountMinSketch(1024, 4);
+		int keys = 20_000;
+		long[] counts = new long[keys];
+		Random random = new Random(42);
+		for (int i = 0; i < 200_000; i++) {
+			// Skewed: low keys come up far more often
+			int key = (int) (keys * Math.pow(random.nextDouble(), 3));
+			counts[key]++;
+			sketch.add("key-" + key);
+		}
+
+		assertThat(sketch.total()).isEqualTo(200_000);
+		assertThat(sketch.errorBound()).isEqualTo((long) Math.ceil(Math.E / 1024 * 200_000));
+		int aboveBound = 0;
+		for (int key = 0; key < keys; key++) {
+			long estimate = sketch.estimate("key-" + key);
+			assertThat(estimate).as("key %d", key).isGreaterThanOrEqualTo(counts[key]);
+			if (estimate - counts[key] > sketch.errorBound()) {
+				aboveBound++;
+			}
+		}
+		// At most a fraction delta (e^-4, 1.8%) of the queries may be further off
+		assertThat((double) aboveBound / keys).isLessThanOrEqualTo(sketch.delta());
+	}
+
+	@Test
+	void mergeEqualsTheSketchOfBothStreams() {
+		CountMinSketch first = new CountMinSketch(256, 3);
+		CountMinSketch second = new CountMinSketch(256, 3);
+		CountMinSketch both = new CountMinSketch(256, 3);
+		for (int i = 0; i < 10_000; i++) {
+			String key = "key-" + (i % 700);
+			(i % 2 == 0 ? first : second).add(key);
+			both.add(key);
+		}
+
+		first.merge(second);
+
+		assertThat(first.total()).isEqualTo(both.total());
+		for (int key = 0; key < 700; key++) {
+			assertThat(first.estimate("key-" + key)).isEqualTo(both.estimate("key-" + key));
+		}
+	}
+}
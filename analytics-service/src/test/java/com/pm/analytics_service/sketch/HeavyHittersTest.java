@@ -0,0 +1,59 @@
+package com.pm.analytics_service.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeavyHittersTest {
+
+	// Zipf-like: key i comes up 20000 / i times, in random order
+	private static final int KEYS = 5000;
+
+	@Test
+	void findsTheTopKeysOfASkewedStream() {
+		HeavyHitters heavyHitters = new HeavyHitters(20, new CountMinSketch());
+		skewedStream(new Random(7)).forEach(heavyHitters::add);
+
+		List<HeavyHitters.Estimate> top = heavyHitters.top(5);
+
+		// The counts of the top 5 are further apart than the sketch's error, so the order is exact
+		assertThat(top).extracting(HeavyHitters.Estimate::key)
+				.containsExactly("key-1", "key-2", "key-3", "key-4", "key-5");
+		long errorBound = heavyHitters.sketch().errorBound();
+		for (HeavyHitters.Estimate estimate : top) {
+			long count = 20_000 / Long.parseLong(estimate.key().substring(4));
+			assertThat(estimate.count()).isBetween(count, count + errorBound);
+		}
+	}
+
+	@Test
+	void mergedHalvesFindTheSameTopKeys() {
+		List<String> stream = skewedStream(new Random(11));
+		HeavyHitters first = new HeavyHitters(20, new CountMinSketch());
+		HeavyHitters second = new HeavyHitters(20, new CountMinSketch());
+		stream.subList(0, stream.size() / 2).forEach(first::add);
+		stream.subList(stream.size() / 2, stream.size()).forEach(second::add);
+
+		first.merge(second);
+
+		assertThat(first.top(5)).extracting(HeavyHitters.Estimate::key)
+				.containsExactly("key-1", "key-2", "key-3", "key-4", "key-5");
+		assertThat(first.sketch().total()).isEqualTo(stream.size());
+	}
+
+	private static List<String> skewedStream(Random random) {
+		List<String> stream = new ArrayList<>();
+		for (int key = 1; key <= KEYS; key++) {
+			for (int i = 20_000 / key; i > 0; i--) {
+				stream.add("key-" + key);
+			}
+		}
+		Collections.shuffle(stream, random);
+		return stream;
+	}
+}
@@ -0,0 +1,97 @@
+package com.pm.analytics_service.sketch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.within;
+
+class HyperLogLogTest {
+
+	private static final int RUNS = 20;
+
+	// 40k-60k is just above 2.5 * 2^14, where the classic estimator is biased by up to +2%. Every
+	// run has its own values; the hash is fixed, so this doesn't flake
+	@ParameterizedTest
+	@ValueSource(ints = {10_000, 40_000, 50_000, 60_000, 100_000, 1_000_000})
+	void estimateIsWithinTheDocumentedError(int distinct) {
+		double error = new HyperLogLog().relativeStandardError();
+		double sum = 0;
+		for (int run = 0; run < RUNS; run++) {
+			HyperLogLog sketch = new HyperLogLog();
+			for (int i = 0; i < distinct; i++) {
+				sketch.add("run-" + run + "-patient-" + i);
+				// Duplicates don't count
+				sketch.add("run-" + run + "-patient-" + i);
+			}
+			double relative = (sketch.estimate() - distinct) / (double) distinct;
+			assertThat(Math.abs(relative)).as("run %d", run).isLessThan(4 * error);
+			sum += relative;
+		}
+
+		assertThat(error).isCloseTo(0.0081, within(0.0001));
+		// Unbiased: the mean of the runs is within 3 standard errors of a mean of 0
+		assertThat(Math.abs(sum / RUNS)).isLessThan(3 * error / Math.sqrt(RUNS));
+	}
+
+	@Test
+	void smallCountsAreCloseToExact() {
+		HyperLogLog sketch = new HyperLogLog();
+		for (int i = 0; i < 1000; i++) {
+			sketch.add("patient-" + i);
+		}
+
+		assertThat(new HyperLogLog().estimate()).isZero();
+		assertThat((double) sketch.estimate()).isCloseTo(1000, within(5.0));
+	}
+
+	@Test
+	void mergeEqualsTheSketchOfTheUnion() {
+		HyperLogLog first = new HyperLogLog();
+		HyperLogLog second = new HyperLogLog();
+		HyperLogLog union = new HyperLogLog();
+		// Overlapping ranges: 0-59999 and 40000-99999
+		for (int i = 0; i < 100_000; i++) {
+			String value = "patient-" + i;
+			if (i < 60_000) first.add(value);
+			if (i >= 40_000) second.add(value);
+			union.add(value);
+		}
+
+		HyperLogLog merged = first.copy();
+		merged.merge(second);
+
+		assertThat(serialize(merged)).isEqualTo(serialize(union));
+		assertThat(merged.estimate()).isEqualTo(union.estimate());
+		// The copy was merged into, not the original
+		assertThat(serialize(first)).isNotEqualTo(serialize(union));
+	}
+
+	@Test
+	void serializedSketchReadsBackTheSame() {
+		HyperLogLog sketch = new HyperLogLog(10);
+		for (int i = 0; i < 5000; i++) {
+			sketch.add("patient-" + i);
+		}
+
+		HyperLogLog read = HyperLogLog.readFrom(ByteBuffer.wrap(serialize(sketch)));
+
+		assertThat(serialize(read)).isEqualTo(serialize(sketch));
+		assertThat(read.estimate()).isEqualTo(sketch.estimate());
+	}
+
+	@Test
+	void mergeRejectsAnotherPrecision() {
+		assertThatIllegalArgumentException().isThrownBy(() -> new HyperLogLog(14).merge(new HyperLogLog(12)));
+	}
+
+	private static byte[] serialize(HyperLogLog sketch) {
+		ByteBuffer buffer = ByteBuffer.allocate(sketch.serializedSize());
+		sketch.writeTo(buffer);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,64 @@
+package com.pm.api_gateway.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.gateway.config.GatewayProperties;
+import org.springframework.cloud.gateway.config.HttpClientCustomizer;
+import org.springframework.cloud.gateway.config.HttpClientFactory;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.config.HttpClientSslConfigurer;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.netty.http.client.HttpClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/** Replaces the gateway's HttpClient factory and routing filter with ours, which know about
+    the per-route pools in 'gateway.upstream.pools'. The default routing filter is switched off
+    in application.yml ('spring.cloud.gateway.global-filter.netty-routing.enabled: false'), which
+    also switches off the filter that writes the upstream response, so we register that one here. */
+@Configuration
+@EnableConfigurationProperties(UpstreamPoolProperties.class)
+public class UpstreamHttpClientConfig {
+
+    /** Gateway's own 'gatewayHttpClientFactory' backs off when this bean exists */
+    @Bean
+    public HttpClientFactory gatewayHttpClientFactory(
+            HttpClientProperties properties,
+            ServerProperties serverProperties,
+            List<HttpClientCustomizer> customizers,
+            HttpClientSslConfigurer sslConfigurer,
+            GatewayProperties gatewayProperties,
+            UpstreamPoolProperties upstreamPools
+    ) {
+        return new UpstreamHttpClientFactory(properties, serverProperties, sslConfigurer, customizers,
+                gatewayProperties, upstreamPools);
+    }
+
+    @Bean
+    public UpstreamRoutingFilter upstreamRoutingFilter(
+            HttpClient httpClient,
+            ObjectProvider<List<HttpHeadersFilter>> headersFilters,
+            HttpClientProperties properties,
+            UpstreamPoolProperties upstreamPools
+    ) {
+        Set<String> h2cRoutes = upstreamPools.getPools().entrySet().stream()
+                .filter(pool -> pool.getValue().isH2c())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        return new UpstreamRoutingFilter(httpClient, headersFilters, properties, h2cRoutes);
+    }
+
+    /** Same name as the gateway's own bean, so turning the default routing filter back on fails
+        at startup instead of writing every response twice */
+    @Bean
+    public NettyWriteResponseFilter nettyWriteResponseFilter(GatewayProperties gatewayProperties) {
+        return new NettyWriteResponseFilter(gatewayProperties.getStreamingMediaTypes());
+    }
+}
@@ -0,0 +1,98 @@
+package com.pm.api_gateway.config;
+
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.cloud.gateway.config.GatewayProperties;
+import org.springframework.cloud.gateway.config.HttpClientCustomizer;
+import org.springframework.cloud.gateway.config.HttpClientFactory;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.config.HttpClientSslConfigurer;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Builds the gateway's HttpClient like the default factory, but its connection provider gets
+    a pool of its own for every upstream in 'gateway.upstream.pools' (see 'UpstreamPoolProperties').
+    Reactor Netty picks the pool by the remote host and port of the request, so we look up the
+    URI of each configured route. Every pool reports reactor.netty.connection.provider.* metrics
+    (total, active, idle and pending connections) tagged with its remote address. */
+public class UpstreamHttpClientFactory extends HttpClientFactory {
+
+    private final GatewayProperties gatewayProperties;
+    private final UpstreamPoolProperties upstreamPools;
+
+    public UpstreamHttpClientFactory(
+            HttpClientProperties properties,
+            ServerProperties serverProperties,
+            HttpClientSslConfigurer sslConfigurer,
+            List<HttpClientCustomizer> customizers,
+            GatewayProperties gatewayProperties,
+            UpstreamPoolProperties upstreamPools
+    ) {
+        super(properties, serverProperties, sslConfigurer, customizers);
+        this.gatewayProperties = gatewayProperties;
+        this.upstreamPools = upstreamPools;
+    }
+
+    @Override
+    protected ConnectionProvider buildConnectionProvider(HttpClientProperties properties) {
+        HttpClientProperties.Pool pool = properties.getPool();
+        if (pool.getType() == HttpClientProperties.Pool.PoolType.DISABLED || upstreamPools.getPools().isEmpty()) {
+            return super.buildConnectionProvider(properties);
+        }
+
+        // Hosts without a pool of their own; same settings as the default factory would use
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(pool.getName());
+        if (pool.getType() == HttpClientProperties.Pool.PoolType.FIXED) {
+            builder.maxConnections(pool.getMaxConnections())
+                    .pendingAcquireMaxCount(-1)
+                    .pendingAcquireTimeout(Duration.ofMillis(pool.getAcquireTimeout()));
+        } else {
+            builder.maxConnections(Integer.MAX_VALUE)
+                    .pendingAcquireTimeout(Duration.ZERO)
+                    .pendingAcquireMaxCount(-1);
+        }
+        if (pool.getMaxIdleTime() != null) {
+            builder.maxIdleTime(pool.getMaxIdleTime());
+        }
+        if (pool.getMaxLifeTime() != null) {
+            builder.maxLifeTime(pool.getMaxLifeTime());
+        }
+        builder.evictInBackground(pool.getEvictionInterval()).metrics(pool.isMetrics());
+
+        Map<InetSocketAddress, String> configuredBy = new HashMap<>();
+        upstreamPools.getPools().forEach((routeId, upstream) -> {
+            InetSocketAddress address = remoteAddress(routeId);
+            String other = configuredBy.putIfAbsent(address, routeId);
+            if (other != null) {
+                throw new IllegalStateException("Routes '" + other + "' and '" + routeId
+                        + "' both configure the pool of " + address + "; configure it under one of them");
+            }
+            builder.forRemoteHost(address, spec -> spec
+                    .maxConnections(upstream.getMaxConnections())
+                    .pendingAcquireMaxCount(upstream.getPendingAcquireMaxCount())
+                    .pendingAcquireTimeout(upstream.getPendingAcquireTimeout())
+                    .maxIdleTime(upstream.getMaxIdleTime())
+                    .maxLifeTime(upstream.getMaxLifeTime())
+                    .evictInBackground(upstream.getEvictionInterval())
+                    .metrics(true));
+        });
+        return builder.build();
+    }
+
+    // The request's remote address is built from the URI unresolved, so that is what we key on
+    private InetSocketAddress remoteAddress(String routeId) {
+        URI uri = gatewayProperties.getRoutes().stream()
+                .filter(route -> route.getId().equals(routeId))
+                .map(RouteDefinition::getUri)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("gateway.upstream.pools: no route with id '" + routeId + "'"));
+        int port = uri.getPort() != -1 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        return InetSocketAddress.createUnresolved(uri.getHost(), port);
+    }
+}
@@ -0,0 +1,109 @@
+package com.pm.api_gateway.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Connection pools to the upstream services, keyed by route id:
+ *
+ *  gateway:
+ *    upstream:
+ *      pools:
+ *        patient-service-route:
+ *          max-connections: 100
+ *          pending-acquire-max-count: 200
+ *          pending-acquire-timeout: 2s
+ *          max-idle-time: 30s
+ *          h2c: false
+ *
+ *  A pool belongs to the route's host and port, so routes to the same service share it;
+ *  configure it under one of them. Hosts without a pool here use the
+ *  'spring.cloud.gateway.httpclient.pool' settings. */
+@ConfigurationProperties(prefix = "gateway.upstream")
+public class UpstreamPoolProperties {
+
+    private Map<String, Pool> pools = new LinkedHashMap<>();
+
+    public Map<String, Pool> getPools() {
+        return pools;
+    }
+
+    public void setPools(Map<String, Pool> pools) {
+        this.pools = pools;
+    }
+
+    public static class Pool {
+        // Connections open to the service at most; with h2c, each one carries many requests
+        private int maxConnections = 100;
+        // Requests that may wait for a free connection; more than that fail right away
+        private int pendingAcquireMaxCount = 200;
+        // How long a request may wait for a free connection
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(2);
+        // Idle connections are closed after this, before the service (or a load balancer) drops them
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        // Connections are replaced after this, so new service instances get their share of the traffic
+        private Duration maxLifeTime = Duration.ofMinutes(10);
+        // How often idle and expired connections are closed in the background
+        private Duration evictionInterval = Duration.ofSeconds(10);
+        // HTTP/2 without TLS ("prior knowledge"); only for services that accept it
+        private boolean h2c = false;
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getPendingAcquireMaxCount() {
+            return pendingAcquireMaxCount;
+        }
+
+        public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) {
+            this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        }
+
+        public Duration getPendingAcquireTimeout() {
+            return pendingAcquireTimeout;
+        }
+
+        public void setPendingAcquireTimeout(Duration pendingAcquireTimeout) {
+            this.pendingAcquireTimeout = pendingAcquireTimeout;
+        }
+
+        public Duration getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        public void setMaxIdleTime(Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+        }
+
+        public Duration getMaxLifeTime() {
+            return maxLifeTime;
+        }
+
+        public void setMaxLifeTime(Duration maxLifeTime) {
+            this.maxLifeTime = maxLifeTime;
+        }
+
+        public Duration getEvictionInterval() {
+            return evictionInterval;
+        }
+
+        public void setEvictionInterval(Duration evictionInterval) {
+            this.evictionInterval = evictionInterval;
+        }
+
+        public boolean isH2c() {
+            return h2c;
+        }
+
+        public void setH2c(boolean h2c) {
+            this.h2c = h2c;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.pm.api_gateway.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.filter.NettyRoutingFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** The gateway's routing filter (it sends the request upstream), except that routes with
+    'h2c: true' in 'gateway.upstream.pools' talk HTTP/2 to their service. The protocol is a
+    setting of the whole HttpClient, so those routes get their own copy of it, made once. */
+public class UpstreamRoutingFilter extends NettyRoutingFilter {
+
+    private final Set<String> h2cRoutes;
+    private final ConcurrentMap<String, HttpClient> h2cClients = new ConcurrentHashMap<>();
+
+    public UpstreamRoutingFilter(
+            HttpClient httpClient,
+            ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider,
+            HttpClientProperties properties,
+            Set<String> h2cRoutes
+    ) {
+        super(httpClient, headersFiltersProvider, properties);
+        this.h2cRoutes = h2cRoutes;
+    }
+
+    @Override
+    protected HttpClient getHttpClient(Route route, ServerWebExchange exchange) {
+        HttpClient httpClient = super.getHttpClient(route, exchange);
+        if (!h2cRoutes.contains(route.getId())) {
+            return httpClient;
+        }
+        return h2cClients.computeIfAbsent(route.getId(), id -> httpClient.protocol(HttpProtocol.H2C));
+    }
+}
@@ -0,0 +1,272 @@
+package com.pm.api_gateway.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/** Limits how many requests of a route may be waiting on the upstream service at once,
+ *  configured per route:
+ *
+ *  filters:
+ *    - name: ConcurrencyLimit
+ *      args:
+ *        initialLimit: 20
+ *        minLimit: 5
+ *        maxLimit: 200
+ *
+ *  The limit isn't fixed: it follows the upstream latency (a "gradient" limit). While responses
+ *  are about as fast as when the service is idle the limit grows; when they get much slower (the
+ *  service is queueing) it shrinks, and errors or timeouts cut it by 10%. A request over the limit
+ *  gets 503 with 'Retry-After' right away instead of waiting in a queue, so the requests that do
+ *  get through keep a normal response time while the service is in trouble.
+ *  Put it after 'ResponseCache', so cached responses don't take up a slot. */
+@Component
+public class ConcurrencyLimitGatewayFilterFactory extends AbstractGatewayFilterFactory<ConcurrencyLimitGatewayFilterFactory.Config> {
+
+    private final MeterRegistry meterRegistry;
+    // Per route id, in the factory rather than in the filter: a route refresh calls 'apply' again,
+    // and the route keeps the limit it learned (and its gauges, which look it up here)
+    private final ConcurrentMap<String, RouteLimit> limits = new ConcurrentHashMap<>();
+
+    private record RouteLimit(GradientLimit limit, Counter rejected) {}
+
+    public ConcurrencyLimitGatewayFilterFactory(MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return (exchange, chain) -> {
+            // The route id is only known per request
+            RouteLimit routeLimit = routeLimit(routeId(exchange), config);
+            GradientLimit limit = routeLimit.limit();
+
+            int inFlight = limit.tryAcquire();
+            if (inFlight < 0) {
+                routeLimit.rejected().increment();
+                // Other requests may be waiting for this response in 'ResponseCache'; let them go
+                ResponseCacheGatewayFilterFactory.Capture capture =
+                        exchange.getAttribute(ResponseCacheGatewayFilterFactory.CAPTURE_ATTRIBUTE);
+                if (capture != null) {
+                    capture.giveUp();
+                }
+                exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+                return exchange.getResponse().setComplete();
+            }
+
+            long start = System.nanoTime();
+            // When the upstream response starts being written, i.e. the time the service took to answer
+            AtomicLong answeredAt = new AtomicLong();
+            exchange.getResponse().beforeCommit(() -> {
+                answeredAt.compareAndSet(0, System.nanoTime());
+                return Mono.empty();
+            });
+
+            return chain.filter(exchange).doFinally(signal -> {
+                long end = answeredAt.get() == 0 ? System.nanoTime() : answeredAt.get();
+                HttpStatusCode status = exchange.getResponse().getStatusCode();
+                // A cancelled request (the client went away) tells us nothing about the service
+                if (signal != SignalType.CANCEL) {
+                    boolean dropped = signal == SignalType.ON_ERROR || (status != null && status.is5xxServerError());
+                    limit.onSample(end - start, inFlight, dropped);
+                }
+                limit.release();
+            });
+        };
+    }
+
+    /** The route's limit, created with its meters on the first request. Only a change of the
+        route's limits (initial, min or max) starts it over; requests already in flight release
+        the one they were let in by. */
+    private RouteLimit routeLimit(String routeId, Config config) {
+        RouteLimit current = limits.get(routeId);
+        if (current != null && current.limit().isConfiguredAs(config)) {
+            return current;
+        }
+        return limits.compute(routeId, (id, existing) -> {
+            if (existing == null) {
+                return new RouteLimit(new GradientLimit(config), registerMeters(id));
+            }
+            return existing.limit().isConfiguredAs(config)
+                    ? existing
+                    : new RouteLimit(new GradientLimit(config), existing.rejected());
+        });
+    }
+
+    // The gauges read the limit through 'limits', so they follow it when it is replaced
+    private Counter registerMeters(String routeId) {
+        Gauge.builder("gateway.concurrency.limit", limits, routes -> gauge(routes, routeId, GradientLimit::getLimit))
+                .description("Current adaptive concurrency limit of the route")
+                .tag("route", routeId)
+                .register(meterRegistry);
+        Gauge.builder("gateway.concurrency.in.flight", limits, routes -> gauge(routes, routeId, GradientLimit::getInFlight))
+                .description("Requests of the route currently waiting on the upstream service")
+                .tag("route", routeId)
+                .register(meterRegistry);
+        return Counter.builder("gateway.concurrency.rejected")
+                .description("Requests shed with 503 because the route was at its concurrency limit")
+                .tag("route", routeId)
+                .register(meterRegistry);
+    }
+
+    private static double gauge(Map<String, RouteLimit> routes, String routeId, ToIntFunction<GradientLimit> value) {
+        RouteLimit routeLimit = routes.get(routeId);
+        return routeLimit == null ? Double.NaN : value.applyAsInt(routeLimit.limit());
+    }
+
+    private static String routeId(ServerWebExchange exchange) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        return route == null ? "unknown" : route.getId();
+    }
+
+    /** The limit follows the ratio between the latency of an unloaded service (the lowest we've
+        seen lately) and the latency of the latest response:
+        newLimit = limit * clamp(tolerance * minRtt / rtt, 0.5, 1) + sqrt(limit)
+        The 'sqrt(limit)' term lets the limit grow while latency stays near the minimum; once
+        requests queue inside the service the ratio drops below 1 and outweighs it, so the limit
+        settles at about what the service can work on at once plus a small queue. The result is
+        smoothed so a single slow response doesn't halve the limit. The minimum is taken again
+        every few hundred samples, so a service that got slower for good (e.g. a bigger table)
+        isn't held to its old latency forever. Admission is a single CAS on 'inFlight'; only
+        the completion of a request takes the lock. */
+    static final class GradientLimit {
+        // Latency may be twice the minimum before the limit shrinks
+        private static final double TOLERANCE = 2.0;
+        private static final double SMOOTHING = 0.2;
+        private static final double BACKOFF = 0.9;
+        // How many samples the minimum latency is taken over
+        private static final int RTT_WINDOW = 500;
+
+        private final int initialLimit;
+        private final int minLimit;
+        private final int maxLimit;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile int limit;
+        private double estimatedLimit;
+        private long minRtt = Long.MAX_VALUE;
+        private long windowMinRtt = Long.MAX_VALUE;
+        private int windowSamples;
+
+        GradientLimit(Config config) {
+            this.initialLimit = config.getInitialLimit();
+            this.minLimit = Math.max(1, config.getMinLimit());
+            this.maxLimit = Math.max(minLimit, config.getMaxLimit());
+            this.estimatedLimit = Math.min(maxLimit, Math.max(minLimit, config.getInitialLimit()));
+            this.limit = (int) estimatedLimit;
+        }
+
+        /** @return the number of requests in flight including this one, or -1 when over the limit */
+        int tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= limit) {
+                    return -1;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return current + 1;
+                }
+            }
+        }
+
+        void release() {
+            inFlight.decrementAndGet();
+        }
+
+        /**
+         * @param rttNanos how long the upstream service took
+         * @param inFlightAtStart requests in flight when this one was let through
+         * @param dropped the request failed or timed out, or the service answered with a 5xx
+         */
+        synchronized void onSample(long rttNanos, int inFlightAtStart, boolean dropped) {
+            if (dropped) {
+                estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF);
+                limit = (int) estimatedLimit;
+                return;
+            }
+
+            long rtt = Math.max(1, rttNanos);
+            windowMinRtt = Math.min(windowMinRtt, rtt);
+            minRtt = Math.min(minRtt, rtt);
+            if (++windowSamples == RTT_WINDOW) {
+                minRtt = windowMinRtt;
+                windowMinRtt = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+
+            // With few requests in flight the latency says nothing about how much more the service can take
+            if (inFlightAtStart < estimatedLimit / 2) {
+                return;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRtt / rtt));
+            double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            limit = (int) estimatedLimit;
+        }
+
+        boolean isConfiguredAs(Config config) {
+            return initialLimit == config.getInitialLimit()
+                    && minLimit == Math.max(1, config.getMinLimit())
+                    && maxLimit == Math.max(minLimit, config.getMaxLimit());
+        }
+
+        int getLimit() {
+            return limit;
+        }
+
+        int getInFlight() {
+            return inFlight.get();
+        }
+    }
+
+    public static class Config {
+        private int initialLimit = 20;
+        private int minLimit = 5;
+        private int maxLimit = 200;
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+    }
+}
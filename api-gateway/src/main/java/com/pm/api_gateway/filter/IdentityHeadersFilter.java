@@ -0,0 +1,38 @@
+package com.pm.api_gateway.filter;
+
+import com.pm.api_gateway.util.IdentitySigner;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/** Only 'JwtValidation' may set the X-Auth-* identity headers (see 'IdentitySigner'), so the ones
+    a client sends itself are dropped on every route, before any route filter runs. */
+@Component
+public class IdentityHeadersFilter implements GlobalFilter, Ordered {
+
+    private static final List<String> HEADERS = List.of(
+            IdentitySigner.SUBJECT_HEADER, IdentitySigner.ROLE_HEADER,
+            IdentitySigner.EXPIRES_HEADER, IdentitySigner.SIGNATURE_HEADER);
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        HttpHeaders headers = exchange.getRequest().getHeaders();
+        if (HEADERS.stream().noneMatch(headers::containsKey)) {
+            return chain.filter(exchange);
+        }
+        return chain.filter(exchange.mutate()
+                .request(request -> request.headers(h -> HEADERS.forEach(h::remove)))
+                .build());
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE + 1000;
+    }
+}
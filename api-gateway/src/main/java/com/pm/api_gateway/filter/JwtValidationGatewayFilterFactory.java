@@ -1,29 +1,91 @@
 package com.pm.api_gateway.filter;
 
+import com.pm.api_gateway.util.IdentitySigner;
+import com.pm.api_gateway.util.JwtVerifier;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.security.SignatureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
 
 /** The 'AbstractGatewayFilterFactory' It allows you to create custom filters that can be
     applied to specific routes. */
 @Component
 public class JwtValidationGatewayFilterFactory extends AbstractGatewayFilterFactory<Object> {
 
+    private static final Logger log = LoggerFactory.getLogger(JwtValidationGatewayFilterFactory.class);
+
+    /** The verified 'sub' of the token; filters after this one (e.g. 'RateLimit') can use it */
+    public static final String SUBJECT_ATTRIBUTE = JwtValidationGatewayFilterFactory.class.getName() + ".subject";
+
+    /** The circuit breaker's name; it is configured under 'resilience4j.circuitbreaker.instances.auth-validate' */
+    static final String CIRCUIT_BREAKER = "auth-validate";
+
+    private enum RemoteValidation { VALID, INVALID, UNAVAILABLE }
+
     private final WebClient webClient;
+    private final ReactiveCircuitBreaker circuitBreaker;
+    private final JwtVerifier jwtVerifier;
+    private final IdentitySigner identitySigner;
+    private final TokenValidationCache validationCache;
+    private final boolean localVerification;
+    private final boolean remoteFallback;
 
     /**
      *
      * @param webClientBuilder This will help us to create a webclient to make a request
+     * @param httpClient The gateway's own client, so /validate uses the auth-service connection pool
+     *                   from 'gateway.upstream.pools' instead of a default one
      * @param authServiceUrl This will allow us to pass in auth service url dynamically
+     * @param jwtVerifier Checks the token in the gateway when 'jwt.secret' is configured
+     * @param identitySigner Signs the identity headers the services get instead of the token
+     * @param validationCache Remembers the result for tokens we've already validated
+     * @param localVerification 'auth.jwt.local-verification'; false always asks auth-service
+     * @param remoteFallback 'auth.jwt.remote-fallback'; asks auth-service about tokens whose
+     *                       signature we can't verify (e.g. while the key is being rotated)
+     * @param circuitBreakerFactory Stops calling /validate for a while once auth-service keeps failing
      */
     public JwtValidationGatewayFilterFactory(
          WebClient.Builder webClientBuilder,
-         @Value("${auth.service.url}") String authServiceUrl
-    ) { this.webClient = webClientBuilder.baseUrl(authServiceUrl).build(); }
+         HttpClient httpClient,
+         @Value("${auth.service.url}") String authServiceUrl,
+         JwtVerifier jwtVerifier,
+         IdentitySigner identitySigner,
+         TokenValidationCache validationCache,
+         @Value("${auth.jwt.local-verification:true}") boolean localVerification,
+         @Value("${auth.jwt.remote-fallback:false}") boolean remoteFallback,
+         ReactiveCircuitBreakerFactory<?, ?> circuitBreakerFactory
+    ) {
+        this.webClient = webClientBuilder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .baseUrl(authServiceUrl)
+                .build();
+        this.circuitBreaker = circuitBreakerFactory.create(CIRCUIT_BREAKER);
+        this.jwtVerifier = jwtVerifier;
+        this.identitySigner = identitySigner;
+        this.validationCache = validationCache;
+        this.localVerification = localVerification && jwtVerifier.isEnabled();
+        this.remoteFallback = remoteFallback;
+        log.info("JWT validation: {}", this.localVerification ? "local" : "remote (" + authServiceUrl + "/validate)");
+        log.info("Identity to the services: {}", identitySigner.isEnabled() ? "signed X-Auth-* headers" : "the Authorization header");
+    }
 
     /**
      * ServerWebExchange holds all the properties of the current request and
@@ -36,19 +98,109 @@ public class JwtValidationGatewayFilterFactory extends AbstractGatewayFilterFact
 
             /** We return 401 unauthorize status code if the request doesn't have an access token */
             if (token == null || !token.startsWith("Bearer ")) {
-                exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
-                return exchange.getResponse().setComplete();
+                return unauthorized(exchange);
+            }
+
+            String jwt = token.substring(7);
+            String cacheKey = validationCache.key(jwt);
+
+            /** A token we've already validated (and that hasn't expired since) skips validation */
+            TokenValidationCache.Validation validation = validationCache.get(cacheKey);
+            if (validation != null) {
+                return validation.valid() ? proceed(exchange, chain, validation) : unauthorized(exchange);
+            }
+
+            /** We check the signature and expiry ourselves, so a valid token costs no call to
+             * the auth service. A token that is malformed or expired is rejected right away. */
+            if (localVerification) {
+                try {
+                    Claims claims = jwtVerifier.verify(jwt);
+                    return proceed(exchange, chain, validationCache.putValid(cacheKey, claims.getSubject(),
+                            claims.get("role", String.class),
+                            claims.getExpiration() == null ? 0 : claims.getExpiration().getTime()));
+                } catch (SignatureException e) {
+                    if (!remoteFallback) {
+                        validationCache.putInvalid(cacheKey);
+                        return unauthorized(exchange);
+                    }
+                    log.debug("JWT signature not verified locally, asking the auth service");
+                } catch (JwtException | IllegalArgumentException e) {
+                    validationCache.putInvalid(cacheKey);
+                    return unauthorized(exchange);
+                }
             }
 
             /** We now make a validation request to the auth server service using the webclient
              * the 'toBodilessEntity()' method tells the webclient to ignore the response body
-             * then 'then(chain.filter(exchange))' forward the request to the next filter. */
-            return webClient.get()
+             * then the request is forwarded to the next filter. The call runs through a circuit
+             * breaker: when auth-service is failing or too slow we answer 503 at once instead of
+             * letting every request wait for its timeout. A 401 is an answer, not a failure. */
+            Mono<RemoteValidation> validate = webClient.get()
                 .uri("/validate")
                 .header(HttpHeaders.AUTHORIZATION, token)
                 .retrieve()
                 .toBodilessEntity()
-                .then(chain.filter(exchange));
+                .thenReturn(RemoteValidation.VALID)
+                .onErrorResume(WebClientResponseException.Unauthorized.class, e -> Mono.just(RemoteValidation.INVALID));
+
+            return circuitBreaker.run(validate, error -> {
+                    // While the breaker is open every request ends up here; the first failures were already logged
+                    if (error instanceof CallNotPermittedException) {
+                        log.debug("Auth service circuit breaker is open");
+                    } else {
+                        log.warn("Token validation by the auth service failed: {}", error.toString());
+                    }
+                    return Mono.just(RemoteValidation.UNAVAILABLE);
+                })
+                .flatMap(result -> switch (result) {
+                    case VALID -> proceed(exchange, chain, validationCache.putValidFromPayload(cacheKey, jwt));
+                    case INVALID -> {
+                        validationCache.putInvalid(cacheKey);
+                        yield unauthorized(exchange);
+                    }
+                    // Not cached; the token may well be valid, so it is tried again next time
+                    case UNAVAILABLE -> serviceUnavailable(exchange);
+                });
         };
     }
+
+    /** Passes a validated request on. With an 'IdentitySigner' key the token goes no further: the
+        services get the signed X-Auth-* headers instead and don't have to parse it again.
+        @param validation null when auth-service accepted a token whose payload we can't read */
+    private Mono<Void> proceed(ServerWebExchange exchange, GatewayFilterChain chain, TokenValidationCache.Validation validation) {
+        if (validation != null && validation.subject() != null) {
+            exchange.getAttributes().put(SUBJECT_ATTRIBUTE, validation.subject());
+        }
+        if (!identitySigner.isEnabled()) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpRequest request = exchange.getRequest().mutate().headers(headers -> {
+            // 'IdentityHeadersFilter' has already removed any X-Auth-* headers the client sent
+            headers.remove(HttpHeaders.AUTHORIZATION);
+            // Without a subject and 'exp' there is nothing to vouch for; the service will reject the request
+            if (validation == null || validation.subject() == null || validation.expiresAt() <= 0) {
+                return;
+            }
+            headers.set(IdentitySigner.SUBJECT_HEADER, validation.subject());
+            if (validation.role() != null) {
+                headers.set(IdentitySigner.ROLE_HEADER, validation.role());
+            }
+            headers.set(IdentitySigner.EXPIRES_HEADER, Long.toString(validation.expiresAt()));
+            headers.set(IdentitySigner.SIGNATURE_HEADER,
+                    identitySigner.sign(validation.subject(), validation.role(), validation.expiresAt()));
+        }).build();
+        return chain.filter(exchange.mutate().request(request).build());
+    }
+
+    private Mono<Void> unauthorized(ServerWebExchange exchange) {
+        exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+        return exchange.getResponse().setComplete();
+    }
+
+    private Mono<Void> serviceUnavailable(ServerWebExchange exchange) {
+        exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, "5");
+        return exchange.getResponse().setComplete();
+    }
 }
@@ -0,0 +1,221 @@
+package com.pm.api_gateway.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.cloud.gateway.support.ipresolver.RemoteAddressResolver;
+import org.springframework.cloud.gateway.support.ipresolver.XForwardedRemoteAddressResolver;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/** In-memory rate limiting per client, configured per route:
+ *
+ *  filters:
+ *    - JwtValidation
+ *    - name: RateLimit
+ *      args:
+ *        capacity: 100          # the burst a client may send at once
+ *        refillPerSecond: 50    # the sustained rate
+ *
+ *  The client is the token's subject when 'JwtValidation' ran before this filter,
+ *  otherwise the client IP. Over the limit, the request gets 429 with 'Retry-After'.
+ *  Nothing is shared between gateway instances, so no Redis is needed.
+ *
+ *  'gateway.rate.limit.requests' counts the requests per route and outcome (allowed/rejected).
+ *  Which clients are limited goes to the log, not to the metrics: the key is an email or an IP,
+ *  and one time series per client would fill the meter registry. */
+@Component
+public class RateLimitGatewayFilterFactory extends AbstractGatewayFilterFactory<RateLimitGatewayFilterFactory.Config> {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitGatewayFilterFactory.class);
+
+    private final MeterRegistry meterRegistry;
+    private final RemoteAddressResolver remoteAddressResolver;
+    // In the factory rather than in the filter, so a route refresh (which calls 'apply' again)
+    // neither hands every client a full bucket nor drops the pending "lifted" log lines.
+    // Keyed by route id and client
+    private final Cache<String, Bucket> buckets;
+    private final ConcurrentMap<String, RouteCounters> counters = new ConcurrentHashMap<>();
+
+    private record RouteCounters(Counter allowed, Counter rejected) {}
+
+    /**
+     * @param trustedProxies 'gateway.rate-limit.trusted-proxies'; how many proxies (e.g. the load
+     *                       balancer) add themselves to 'X-Forwarded-For' in front of us.
+     *                       0 uses the address of the connection itself.
+     * @param maxKeys 'gateway.rate-limit.max-keys'; how many buckets (a client on a route) we keep
+     */
+    public RateLimitGatewayFilterFactory(
+            MeterRegistry meterRegistry,
+            @Value("${gateway.rate-limit.trusted-proxies:0}") int trustedProxies,
+            @Value("${gateway.rate-limit.max-keys:100000}") long maxKeys
+    ) {
+        super(Config.class);
+        this.meterRegistry = meterRegistry;
+        this.remoteAddressResolver = trustedProxies > 0
+                ? XForwardedRemoteAddressResolver.maxTrustedIndex(trustedProxies)
+                : new RemoteAddressResolver() {};
+        // A client that was limited gets one log line when it is limited and one when its bucket
+        // goes, with how many of its requests were rejected meanwhile
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfter(new IdleExpiry())
+                .<String, Bucket>removalListener((key, bucket, cause) -> {
+                    if (bucket != null && bucket.rejected.sum() > 0) {
+                        log.info("Rate limit of {} on route {} lifted; {} requests rejected",
+                                bucket.client, bucket.routeId, bucket.rejected.sum());
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.getRefillPerSecond());
+        long burstNanos = (config.getCapacity() - 1) * intervalNanos;
+
+        // An idle client's bucket is full again after 'capacity' intervals; a new bucket is the same,
+        // so we can drop it then
+        Duration idle = Duration.ofNanos(Math.max(burstNanos + intervalNanos, TimeUnit.SECONDS.toNanos(1)));
+
+        return (exchange, chain) -> {
+            String key = key(exchange);
+            String routeId = routeId(exchange);
+            Bucket bucket = buckets.get(routeId + " " + key, k -> new Bucket(System.nanoTime(), routeId, key, idle));
+            RouteCounters routeCounters = counters(routeId);
+
+            long waitNanos = bucket.tryAcquire(System.nanoTime(), intervalNanos, burstNanos);
+            if (waitNanos == 0) {
+                routeCounters.allowed().increment();
+                return chain.filter(exchange);
+            }
+
+            routeCounters.rejected().increment();
+            bucket.rejected.increment();
+            if (bucket.limited.compareAndSet(false, true)) {
+                log.warn("Rate limiting {} on route {}", key, routeId);
+            }
+            long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+            return exchange.getResponse().setComplete();
+        };
+    }
+
+    // Registered once per route; every request after that is a plain map read
+    private RouteCounters counters(String routeId) {
+        RouteCounters routeCounters = counters.get(routeId);
+        return routeCounters != null ? routeCounters : counters.computeIfAbsent(routeId, id -> new RouteCounters(
+                meterRegistry.counter("gateway.rate.limit.requests", "route", id, "outcome", "allowed"),
+                meterRegistry.counter("gateway.rate.limit.requests", "route", id, "outcome", "rejected")));
+    }
+
+    private String key(ServerWebExchange exchange) {
+        String subject = exchange.getAttribute(JwtValidationGatewayFilterFactory.SUBJECT_ATTRIBUTE);
+        if (subject != null) {
+            return "sub:" + subject;
+        }
+        InetSocketAddress address = remoteAddressResolver.resolve(exchange);
+        return "ip:" + (address == null ? "unknown" : address.getAddress().getHostAddress());
+    }
+
+    private static String routeId(ServerWebExchange exchange) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        return route == null ? "unknown" : route.getId();
+    }
+
+    /** A token bucket kept as a single timestamp (the "generic cell rate algorithm"): 'next' is
+        when the bucket would be completely refilled, each request pushes it one interval further,
+        and a request is allowed while 'next' is at most 'burst' ahead of now. One CAS per request,
+        no locks. */
+    static final class Bucket {
+        private final AtomicLong next;
+        private final String routeId;
+        private final String client;
+        // How long it may go unused before it is dropped
+        private final Duration idle;
+        private final LongAdder rejected = new LongAdder();
+        private final AtomicBoolean limited = new AtomicBoolean();
+
+        Bucket(long now, String routeId, String client, Duration idle) {
+            this.next = new AtomicLong(now);
+            this.routeId = routeId;
+            this.client = client;
+            this.idle = idle;
+        }
+
+        /** @return 0 when the request is allowed, otherwise how long (in nanos) until it would be */
+        long tryAcquire(long now, long intervalNanos, long burstNanos) {
+            while (true) {
+                long current = next.get();
+                long base = Math.max(current, now);
+                long wait = base - now - burstNanos;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (next.compareAndSet(current, base + intervalNanos)) {
+                    return 0;
+                }
+            }
+        }
+    }
+
+    // A bucket goes once it was unused for its route's idle time
+    private static final class IdleExpiry implements Expiry<String, Bucket> {
+        @Override
+        public long expireAfterCreate(String key, Bucket bucket, long currentTime) {
+            return bucket.idle.toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Bucket bucket, long currentTime, long currentDuration) {
+            return bucket.idle.toNanos();
+        }
+
+        @Override
+        public long expireAfterRead(String key, Bucket bucket, long currentTime, long currentDuration) {
+            return bucket.idle.toNanos();
+        }
+    }
+
+    public static class Config {
+        private int capacity = 20;
+        private double refillPerSecond = 10;
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public double getRefillPerSecond() {
+            return refillPerSecond;
+        }
+
+        public void setRefillPerSecond(double refillPerSecond) {
+            this.refillPerSecond = refillPerSecond;
+        }
+    }
+}
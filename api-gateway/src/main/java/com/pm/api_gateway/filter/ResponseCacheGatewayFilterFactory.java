@@ -0,0 +1,296 @@
+package com.pm.api_gateway.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/** Caches successful GET responses of a route for a short time, configured per route:
+ *
+ *  filters:
+ *    - name: ResponseCache
+ *      args:
+ *        ttl: 2s                 # how long a response is served from the gateway
+ *        maxEntrySize: 1MB       # bigger responses are passed through and not cached
+ *
+ *  Identical GETs that arrive while the first one is still being fetched wait for it instead
+ *  of going upstream too (single-flight), so a burst of N polls costs one backend call.
+ *  Cached responses carry an ETag; a client sending it back in 'If-None-Match' gets 304.
+ *  Streamed responses (e.g. NDJSON) and responses marked 'no-store' or 'private' are never cached.
+ *
+ *  Responses are cached per caller: the key has the token's subject (from 'JwtValidation', which
+ *  must run first), so a response made for one user is never served to another one.
+ *
+ *  Any other method on the route (POST, PUT, DELETE) makes that route's cached responses
+ *  unreachable (they expire on their own). This only works on this gateway instance: after a
+ *  write through another instance, or straight to the service, this one may serve the old
+ *  response until its 'ttl' is over. Keep the ttl to what a client can live with being stale. */
+@Component
+public class ResponseCacheGatewayFilterFactory extends AbstractGatewayFilterFactory<ResponseCacheGatewayFilterFactory.Config> {
+
+    private static final String CACHE_HEADER = "X-Cache";
+
+    static final String CAPTURE_ATTRIBUTE = ResponseCacheGatewayFilterFactory.class.getName() + ".capture";
+
+    record CachedResponse(byte[] body, HttpHeaders headers, String etag, Duration ttl) {}
+
+    // Shared by every route, bounded by the total size of the cached bodies
+    private final Cache<String, CachedResponse> cache;
+    private final ConcurrentMap<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+    // Part of every key; a write on the route moves it on, so the invalidation costs the same
+    // whatever the number of entries, and a fetch that started before the write can't be served after it
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    /**
+     * @param maxSize 'gateway.response-cache.max-size'; the memory all cached bodies may take together
+     */
+    public ResponseCacheGatewayFilterFactory(
+            MeterRegistry meterRegistry,
+            @Value("${gateway.response-cache.max-size:64MB}") DataSize maxSize
+    ) {
+        super(Config.class);
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .<String, CachedResponse>weigher((key, response) -> key.length() + response.body().length)
+                .expireAfter(new Expiry<String, CachedResponse>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedResponse response, long currentTime) {
+                        return response.ttl().toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedResponse response, long currentTime, long currentDuration) {
+                        return response.ttl().toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedResponse response, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "gateway.response");
+        this.coalesced = Counter.builder("gateway.response.cache.coalesced")
+                .description("GET requests that waited for an identical request in flight instead of going upstream")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return (exchange, chain) -> {
+            String routeId = routeId(exchange);
+            AtomicLong generation = generations.computeIfAbsent(routeId, id -> new AtomicLong());
+
+            if (exchange.getRequest().getMethod() != HttpMethod.GET) {
+                // A write may change what the route returns. Moved on before it, so no fetch that
+                // started earlier is served after it, and again once it is done: a GET fetched while
+                // the write ran may still have read the old state, and it is cached under the
+                // generation in between
+                generation.incrementAndGet();
+                return chain.filter(exchange).doFinally(signal -> generation.incrementAndGet());
+            }
+
+            String subject = exchange.getAttribute(JwtValidationGatewayFilterFactory.SUBJECT_ATTRIBUTE);
+            String key = routeId + " " + generation.get()
+                    + " " + (subject == null ? "-" : "sub:" + subject)
+                    + " " + exchange.getRequest().getURI().getRawPath()
+                    + "?" + exchange.getRequest().getURI().getRawQuery()
+                    + " " + exchange.getRequest().getHeaders().getFirst(HttpHeaders.ACCEPT);
+
+            CachedResponse cached = cache.getIfPresent(key);
+            if (cached != null) {
+                return write(exchange, cached, "HIT");
+            }
+
+            CompletableFuture<CachedResponse> fetch = new CompletableFuture<>();
+            CompletableFuture<CachedResponse> leader = inFlight.putIfAbsent(key, fetch);
+            if (leader != null) {
+                coalesced.increment();
+                // The leader's response wasn't cacheable (an error, too big, streamed); fetch our own
+                return Mono.fromFuture(leader.thenApply(Optional::ofNullable))
+                        .flatMap(response -> response.isPresent()
+                                ? write(exchange, response.get(), "COALESCED")
+                                : chain.filter(exchange));
+            }
+
+            // The previous leader may have finished between our cache lookup and 'putIfAbsent'
+            cached = cache.getIfPresent(key);
+            if (cached != null) {
+                inFlight.remove(key, fetch);
+                fetch.complete(cached);
+                return write(exchange, cached, "HIT");
+            }
+
+            exchange.getResponse().getHeaders().set(CACHE_HEADER, "MISS");
+            // The body is written after all the route filters, so 'ResponseCaptureFilter' does the copying
+            exchange.getAttributes().put(CAPTURE_ATTRIBUTE, new Capture(config, response -> {
+                if (response != null) {
+                    cache.put(key, response);
+                }
+                inFlight.remove(key, fetch);
+                // Releases the waiting requests; with null they go upstream themselves
+                fetch.complete(response);
+            }));
+            return chain.filter(exchange);
+        };
+    }
+
+    private Mono<Void> write(ServerWebExchange exchange, CachedResponse cached, String cacheStatus) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.getHeaders().addAll(cached.headers());
+        response.getHeaders().setETag(cached.etag());
+        response.getHeaders().set(CACHE_HEADER, cacheStatus);
+
+        String ifNoneMatch = exchange.getRequest().getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+        if (cached.etag().equals(ifNoneMatch)) {
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            return response.setComplete();
+        }
+
+        response.setStatusCode(HttpStatus.OK);
+        response.getHeaders().setContentLength(cached.body().length);
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(cached.body())));
+    }
+
+    private static String routeId(ServerWebExchange exchange) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        return route == null ? "unknown" : route.getId();
+    }
+
+    /** What the 'ResponseCaptureFilter' keeps of the upstream response while it passes it through
+        to the client, as long as it stays cacheable. Once it can't be cached (too big, wrong status,
+        streamed) the waiting requests are released right away instead of at the end of the response. */
+    static class Capture {
+        // Per connection, or not ours to replay to another client
+        private static final Set<String> SKIPPED_HEADERS = Set.of(
+                HttpHeaders.TRANSFER_ENCODING, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONNECTION,
+                HttpHeaders.DATE, HttpHeaders.SET_COOKIE, HttpHeaders.ETAG, CACHE_HEADER);
+
+        private final Config config;
+        private final Consumer<CachedResponse> onFinish;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private HttpHeaders headers;
+        private boolean complete;
+
+        /** @param onFinish called once with the response to cache, or null when there is none */
+        Capture(Config config, Consumer<CachedResponse> onFinish) {
+            this.config = config;
+            this.onFinish = onFinish;
+        }
+
+        boolean start(ServerHttpResponse response) {
+            String cacheControl = response.getHeaders().getCacheControl();
+            boolean cacheable = response.getStatusCode() != null
+                    && response.getStatusCode().value() == HttpStatus.OK.value()
+                    && (cacheControl == null || !(cacheControl.contains("no-store") || cacheControl.contains("private")));
+            if (!cacheable) {
+                giveUp();
+                return false;
+            }
+            headers = new HttpHeaders();
+            response.getHeaders().forEach((name, values) -> {
+                if (SKIPPED_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+                    headers.addAll(name, values);
+                }
+            });
+            return true;
+        }
+
+        void copy(DataBuffer buffer) {
+            if (body == null) return;
+            int length = buffer.readableByteCount();
+            if (body.size() + length > config.getMaxEntrySize().toBytes()) {
+                giveUp();
+                return;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(length);
+            buffer.toByteBuffer(buffer.readPosition(), copy, 0, length);
+            body.write(copy.array(), 0, length);
+        }
+
+        void complete() {
+            complete = true;
+            finish();
+        }
+
+        void giveUp() {
+            body = null;
+            finish();
+        }
+
+        /** Idempotent; also called when the exchange ends, in case the body was never written */
+        void finish() {
+            if (!finished.compareAndSet(false, true)) return;
+            if (!complete || body == null) {
+                onFinish.accept(null);
+                return;
+            }
+            byte[] bytes = body.toByteArray();
+            onFinish.accept(new CachedResponse(bytes, headers, etag(bytes), config.getTtl()));
+        }
+
+        private static String etag(byte[] body) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+                return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22) + "\"";
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // every JVM has SHA-256
+            }
+        }
+    }
+
+    public static class Config {
+        private Duration ttl = Duration.ofSeconds(2);
+        private DataSize maxEntrySize = DataSize.ofMegabytes(1);
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public DataSize getMaxEntrySize() {
+            return maxEntrySize;
+        }
+
+        public void setMaxEntrySize(DataSize maxEntrySize) {
+            this.maxEntrySize = maxEntrySize;
+        }
+    }
+}
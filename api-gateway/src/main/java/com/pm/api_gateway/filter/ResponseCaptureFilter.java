@@ -0,0 +1,65 @@
+package com.pm.api_gateway.filter;
+
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/** The upstream response is written by 'NettyWriteResponseFilter', which runs before every route
+    filter, so a route filter can't wrap the response it writes to. This global filter runs just
+    before it and wraps every response; the wrapper only copies the body when the route's
+    'ResponseCache' filter (which runs after 'JwtValidation') has asked for it. */
+@Component
+public class ResponseCaptureFilter implements GlobalFilter, Ordered {
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpResponse response = new ServerHttpResponseDecorator(exchange.getResponse()) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                ResponseCacheGatewayFilterFactory.Capture capture =
+                        exchange.getAttribute(ResponseCacheGatewayFilterFactory.CAPTURE_ATTRIBUTE);
+                if (capture == null || !capture.start(getDelegate())) {
+                    return super.writeWith(body);
+                }
+                return super.writeWith(Flux.from(body)
+                        .doOnNext(capture::copy)
+                        .doOnComplete(capture::complete)
+                        .doOnError(error -> capture.giveUp()));
+            }
+
+            // Used for streaming media types such as NDJSON; never cached
+            @Override
+            public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+                ResponseCacheGatewayFilterFactory.Capture capture =
+                        exchange.getAttribute(ResponseCacheGatewayFilterFactory.CAPTURE_ATTRIBUTE);
+                if (capture != null) {
+                    capture.giveUp();
+                }
+                return super.writeAndFlushWith(body);
+            }
+        };
+        return chain.filter(exchange.mutate().response(response).build())
+                .doFinally(signal -> {
+                    // Cancelled, failed, or no body was written: release any waiting requests
+                    ResponseCacheGatewayFilterFactory.Capture capture =
+                            exchange.getAttribute(ResponseCacheGatewayFilterFactory.CAPTURE_ATTRIBUTE);
+                    if (capture != null) {
+                        capture.finish();
+                    }
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        return NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
+    }
+}
@@ -0,0 +1,125 @@
+package com.pm.api_gateway.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/** Remembers which tokens were valid, so a client reusing its token (they live for 10 hours)
+    is validated once instead of on every request. The key is a SHA-256 of the token, so the
+    cache never holds usable credentials. A valid entry expires at the token's 'exp' (or after
+    'max-ttl' if that is sooner); an invalid one is remembered for 'negative-ttl'. */
+@Component
+public class TokenValidationCache {
+
+    /** 'valid' is the result; 'subject', 'role' and 'expiresAt' (epoch seconds, 0 when unknown)
+        come from the token when it is valid; 'ttl' is how long we may keep it */
+    public record Validation(boolean valid, String subject, String role, long expiresAt, Duration ttl) {}
+
+    private final Cache<String, Validation> cache;
+    private final ObjectMapper objectMapper;
+    private final Duration maxTtl;
+    private final Duration negativeTtl;
+
+    public TokenValidationCache(
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${auth.jwt.cache.maximum-size:100000}") long maximumSize,
+            @Value("${auth.jwt.cache.max-ttl:10m}") Duration maxTtl,
+            @Value("${auth.jwt.cache.negative-ttl:30s}") Duration negativeTtl
+    ) {
+        this.objectMapper = objectMapper;
+        this.maxTtl = maxTtl;
+        this.negativeTtl = negativeTtl;
+        // Size-bounded; Caffeine evicts the least recently / frequently used entries first
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, Validation>() {
+                    @Override
+                    public long expireAfterCreate(String key, Validation validation, long currentTime) {
+                        return validation.ttl().toNanos();
+                    }
+
+                    // Re-validating the same token (a race between two requests) starts its lifetime over
+                    @Override
+                    public long expireAfterUpdate(String key, Validation validation, long currentTime, long currentDuration) {
+                        return validation.ttl().toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Validation validation, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+
+        // cache.gets{result=hit|miss}, cache.evictions, cache.size, ... and the hit ratio itself
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwt.validation");
+        Gauge.builder("jwt.validation.cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .description("Share of token validations answered from the cache")
+                .register(meterRegistry);
+    }
+
+    public String key(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
+
+    /** @return the result for a token we've seen recently, null when we have to validate it */
+    public Validation get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * @param expiresAtMillis the token's 'exp'; a token that has none (or is already expired) is not cached
+     * @return the validation, also when it wasn't cached
+     */
+    public Validation putValid(String key, String subject, String role, long expiresAtMillis) {
+        Duration untilExpiry = Duration.ofMillis(expiresAtMillis - System.currentTimeMillis());
+        if (untilExpiry.isNegative() || untilExpiry.isZero()) {
+            return new Validation(true, subject, role, 0, Duration.ZERO);
+        }
+        Validation validation = new Validation(true, subject, role, expiresAtMillis / 1000,
+                untilExpiry.compareTo(maxTtl) < 0 ? untilExpiry : maxTtl);
+        cache.put(key, validation);
+        return validation;
+    }
+
+    public void putInvalid(String key) {
+        cache.put(key, new Validation(false, null, null, 0, negativeTtl));
+    }
+
+    /** Reads 'sub', 'role' and 'exp' from the token payload without checking the signature. Only
+        used for tokens auth-service has just told us are valid, to know how long we may trust them.
+        @return the validation, or null if the payload can't be read */
+    public Validation putValidFromPayload(String key, String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) return null;
+        try {
+            JsonNode payload = objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1]));
+            return putValid(key, payload.path("sub").asText(null), payload.path("role").asText(null),
+                    payload.path("exp").asLong(0) * 1000);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
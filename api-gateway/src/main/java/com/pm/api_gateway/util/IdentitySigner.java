@@ -0,0 +1,60 @@
+package com.pm.api_gateway.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/** Signs the identity the gateway forwards to the services once it has validated a token
+    (see 'JwtValidationGatewayFilterFactory'), so they can trust the X-Auth-* headers without
+    parsing the token again. The key 'identity.secret' (env IDENTITY_SECRET) is only shared with
+    the services behind the gateway, never with clients. Without a key it is disabled and the
+    services get the 'Authorization' header as before. */
+@Component
+public class IdentitySigner {
+
+    public static final String SUBJECT_HEADER = "X-Auth-Subject";
+    public static final String ROLE_HEADER = "X-Auth-Role";
+    // The token's 'exp', in epoch seconds
+    public static final String EXPIRES_HEADER = "X-Auth-Expires";
+    public static final String SIGNATURE_HEADER = "X-Auth-Signature";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    // Initialised once with the key; every signature works on a clone, which skips the provider lookup
+    private final Mac prototype;
+
+    public IdentitySigner(@Value("${identity.secret:}") String secret) {
+        if (secret.isBlank()) {
+            this.prototype = null;
+            return;
+        }
+        try {
+            this.prototype = Mac.getInstance(ALGORITHM);
+            this.prototype.init(new SecretKeySpec(Base64.getDecoder().decode(secret), ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can't use identity.secret as an HMAC key", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return prototype != null;
+    }
+
+    /** @return the base64url HMAC-SHA256 of "subject\nrole\nexpires", what patient-service's
+                'GatewayIdentityFilter' computes again to check the headers */
+    public String sign(String subject, String role, long expiresAtSeconds) {
+        try {
+            Mac mac = (Mac) prototype.clone();
+            byte[] signature = mac.doFinal((subject + "\n" + (role == null ? "" : role) + "\n" + expiresAtSeconds)
+                    .getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e); // the JDK's HMAC implementations can be cloned
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.pm.api_gateway.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/** Verifies tokens in the gateway the same way auth-service's 'JwtUtil.validateToken' does:
+    the HMAC signature with the shared 'jwt.secret' (env JWT_SECRET) and the 'exp' claim.
+    Without a secret it is disabled and the gateway asks auth-service instead. */
+@Component
+public class JwtVerifier {
+
+    // Built once; the parser is immutable and thread-safe
+    private final JwtParser parser;
+
+    public JwtVerifier(@Value("${jwt.secret:}") String secretKey) {
+        if (secretKey.isBlank()) {
+            this.parser = null;
+            return;
+        }
+        byte[] keyBytes = Base64.getDecoder()
+                .decode(secretKey.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parser()
+                .verifyWith(Keys.hmacShaKeyFor(keyBytes))
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return parser != null;
+    }
+
+    /**
+     * @return the claims of a valid token
+     * @throws JwtException when the token is malformed, expired or signed with another key
+     */
+    public Claims verify(String token) {
+        if (parser == null) {
+            throw new IllegalStateException("jwt.secret is not configured");
+        }
+        return parser.parseSignedClaims(token).getPayload();
+    }
+}
@@ -0,0 +1,88 @@
+package com.pm.api_gateway.filter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyLimitGatewayFilterFactoryTest {
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ConcurrencyLimitGatewayFilterFactory factory = new ConcurrencyLimitGatewayFilterFactory(meterRegistry);
+
+	@Test
+	void aRouteRefreshKeepsTheLimitAndItsGauges() {
+		GatewayFilter before = factory.apply(config(20, 5, 200));
+		// Held until the upstream "answers"
+		Sinks.Empty<Void> upstream = Sinks.empty();
+		before.filter(exchange(), e -> upstream.asMono()).subscribe();
+
+		// The refresh builds a new filter of the same route
+		GatewayFilter after = factory.apply(config(20, 5, 200));
+		Sinks.Empty<Void> secondUpstream = Sinks.empty();
+		after.filter(exchange(), e -> secondUpstream.asMono()).subscribe();
+
+		assertThat(gauge("gateway.concurrency.in.flight")).isEqualTo(2);
+		upstream.tryEmitEmpty();
+		secondUpstream.tryEmitEmpty();
+		assertThat(gauge("gateway.concurrency.in.flight")).isZero();
+		assertThat(meterRegistry.find("gateway.concurrency.limit").gauges()).hasSize(1);
+	}
+
+	@Test
+	void theGaugesFollowAChangedLimit() {
+		factory.apply(config(20, 5, 200)).filter(exchange(), e -> Mono.empty()).block();
+		assertThat(gauge("gateway.concurrency.limit")).isEqualTo(20);
+
+		factory.apply(config(50, 10, 300)).filter(exchange(), e -> Mono.empty()).block();
+
+		// Not the value of the limit the refresh replaced
+		assertThat(gauge("gateway.concurrency.limit")).isEqualTo(50);
+		assertThat(meterRegistry.find("gateway.concurrency.limit").gauges()).hasSize(1);
+	}
+
+	@Test
+	void rejectsOverTheLimit() {
+		GatewayFilter filter = factory.apply(config(1, 1, 1));
+		Sinks.Empty<Void> upstream = Sinks.empty();
+		filter.filter(exchange(), e -> upstream.asMono()).subscribe();
+
+		MockServerWebExchange rejected = exchange();
+		filter.filter(rejected, e -> Mono.empty()).block();
+
+		assertThat(rejected.getResponse().getStatusCode().value()).isEqualTo(503);
+		assertThat(meterRegistry.get("gateway.concurrency.rejected").tag("route", "patient-service-route").counter().count())
+				.isEqualTo(1);
+		upstream.tryEmitEmpty();
+	}
+
+	private double gauge(String name) {
+		return meterRegistry.get(name).tag("route", "patient-service-route").gauge().value();
+	}
+
+	private static ConcurrencyLimitGatewayFilterFactory.Config config(int initialLimit, int minLimit, int maxLimit) {
+		ConcurrencyLimitGatewayFilterFactory.Config config = new ConcurrencyLimitGatewayFilterFactory.Config();
+		config.setInitialLimit(initialLimit);
+		config.setMinLimit(minLimit);
+		config.setMaxLimit(maxLimit);
+		return config;
+	}
+
+	private static MockServerWebExchange exchange() {
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/patients"));
+		exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR, Route.async()
+				.id("patient-service-route")
+				.uri("http://localhost:4000")
+				.predicate(e -> true)
+				.build());
+		return exchange;
+	}
+}
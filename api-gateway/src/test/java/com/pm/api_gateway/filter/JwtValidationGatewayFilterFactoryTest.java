@@ -0,0 +1,181 @@
+package com.pm.api_gateway.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pm.api_gateway.util.IdentitySigner;
+import com.pm.api_gateway.util.JwtVerifier;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.circuitbreaker.resilience4j.ReactiveResilience4JCircuitBreakerFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JwtValidationGatewayFilterFactoryTest {
+
+	private static final String SECRET = Base64.getEncoder().encodeToString("a-test-secret-that-is-long-enough-for-hs256".getBytes());
+
+	private final TokenValidationCache validationCache = new TokenValidationCache(
+			new ObjectMapper(), new SimpleMeterRegistry(), 1000, Duration.ofMinutes(10), Duration.ofSeconds(30));
+	// Opens after 2 calls of which half failed, and stays open for the rest of a test
+	private final CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+			.slidingWindowSize(2)
+			.minimumNumberOfCalls(2)
+			.failureRateThreshold(50)
+			.waitDurationInOpenState(Duration.ofMinutes(1))
+			.build());
+	// What auth-service's /validate answers, and how often it was asked
+	private final AtomicReference<Mono<ClientResponse>> authService = new AtomicReference<>();
+	private final AtomicInteger validateCalls = new AtomicInteger();
+
+	@Test
+	void anUnreachableAuthServiceIsA503ThatIsNotCached() {
+		authService.set(Mono.error(new IOException("Connection refused")));
+		GatewayFilter filter = filter(false);
+		String token = token(Duration.ofHours(1));
+
+		MockServerWebExchange exchange = exchange(token);
+		filter.filter(exchange, e -> Mono.empty()).block();
+
+		assertThat(exchange.getResponse().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+		assertThat(exchange.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+		// The token may be valid, so the next request asks again
+		assertThat(validationCache.get(validationCache.key(token))).isNull();
+	}
+
+	@Test
+	void anOpenBreakerAnswers503WithoutCallingAuthService() {
+		authService.set(Mono.error(new IOException("Connection refused")));
+		GatewayFilter filter = filter(false);
+
+		for (int i = 0; i < 2; i++) {
+			filter.filter(exchange(token(Duration.ofHours(1))), e -> Mono.empty()).block();
+		}
+		assertThat(breaker().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(validateCalls).hasValue(2);
+
+		MockServerWebExchange exchange = exchange(token(Duration.ofHours(1)));
+		filter.filter(exchange, e -> Mono.empty()).block();
+
+		assertThat(exchange.getResponse().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+		assertThat(validateCalls).hasValue(2);
+	}
+
+	@Test
+	void a401FromAuthServiceIsAnAnswerNotAFailure() {
+		authService.set(Mono.just(ClientResponse.create(HttpStatus.UNAUTHORIZED).build()));
+		GatewayFilter filter = filter(false);
+
+		for (int i = 0; i < 5; i++) {
+			MockServerWebExchange exchange = exchange(token(Duration.ofHours(1)));
+			filter.filter(exchange, e -> Mono.empty()).block();
+			assertThat(exchange.getResponse().getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+		}
+
+		assertThat(breaker().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+		assertThat(validateCalls).hasValue(5);
+	}
+
+	@Test
+	void aTokenAuthServiceAcceptedIsCachedAndThenPassesWithoutACall() {
+		authService.set(Mono.just(ClientResponse.create(HttpStatus.OK).build()));
+		GatewayFilter filter = filter(false);
+		String token = token(Duration.ofHours(1));
+		AtomicInteger passed = new AtomicInteger();
+
+		for (int i = 0; i < 3; i++) {
+			filter.filter(exchange(token), e -> {
+				passed.incrementAndGet();
+				return Mono.empty();
+			}).block();
+		}
+
+		assertThat(passed).hasValue(3);
+		assertThat(validateCalls).hasValue(1);
+	}
+
+	@Test
+	void aCachedTokenIsRejectedOnceItsExpHasPassed() throws Exception {
+		GatewayFilter filter = filter(true);
+		// 'exp' is in whole seconds
+		String token = token(Duration.ofSeconds(2));
+		AtomicInteger passed = new AtomicInteger();
+
+		MockServerWebExchange first = exchange(token);
+		filter.filter(first, e -> {
+			passed.incrementAndGet();
+			return Mono.empty();
+		}).block();
+		assertThat(passed).hasValue(1);
+		assertThat(validationCache.get(validationCache.key(token))).isNotNull();
+
+		Thread.sleep(2100);
+		MockServerWebExchange afterExp = exchange(token);
+		filter.filter(afterExp, e -> {
+			passed.incrementAndGet();
+			return Mono.empty();
+		}).block();
+
+		assertThat(afterExp.getResponse().getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+		assertThat(passed).hasValue(1);
+		assertThat(validateCalls).hasValue(0);
+	}
+
+	private GatewayFilter filter(boolean localVerification) {
+		// The exchange function stands in for auth-service; the builder uses it instead of the connector
+		WebClient.Builder webClientBuilder = WebClient.builder().exchangeFunction(request -> {
+			validateCalls.incrementAndGet();
+			return authService.get();
+		});
+		ReactiveResilience4JCircuitBreakerFactory circuitBreakerFactory = new ReactiveResilience4JCircuitBreakerFactory(
+				circuitBreakers, TimeLimiterRegistry.of(TimeLimiterConfig.custom().timeoutDuration(Duration.ofSeconds(2)).build()));
+		return new JwtValidationGatewayFilterFactory(
+				webClientBuilder, HttpClient.create(), "http://auth-service:4005",
+				new JwtVerifier(localVerification ? SECRET : ""), new IdentitySigner(""), validationCache,
+				localVerification, false, circuitBreakerFactory
+		).apply(new Object());
+	}
+
+	private CircuitBreaker breaker() {
+		return circuitBreakers.circuitBreaker(JwtValidationGatewayFilterFactory.CIRCUIT_BREAKER);
+	}
+
+	private static String token(Duration validFor) {
+		return Jwts.builder()
+				// Tokens made in the same second would be the same token, and cached as one
+				.id(UUID.randomUUID().toString())
+				.subject("testuser@test.com")
+				.claim("role", "ADMIN")
+				.issuedAt(new Date())
+				.expiration(new Date(System.currentTimeMillis() + validFor.toMillis()))
+				.signWith(Keys.hmacShaKeyFor(Base64.getDecoder().decode(SECRET)))
+				.compact();
+	}
+
+	private static MockServerWebExchange exchange(String token) {
+		return MockServerWebExchange.from(MockServerHttpRequest.get("/api/patients")
+				.header(HttpHeaders.AUTHORIZATION, "Bearer " + token));
+	}
+}
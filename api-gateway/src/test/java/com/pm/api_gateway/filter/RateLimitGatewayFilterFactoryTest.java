@@ -0,0 +1,69 @@
+package com.pm.api_gateway.filter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitGatewayFilterFactoryTest {
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final RateLimitGatewayFilterFactory factory = new RateLimitGatewayFilterFactory(meterRegistry, 0, 1000);
+
+	@Test
+	void aRouteRefreshKeepsTheClientsBuckets() {
+		GatewayFilter before = factory.apply(config(3));
+		for (int i = 0; i < 3; i++) {
+			assertThat(send(before, "patient-service-route", "alice")).isNull();
+		}
+
+		// The refresh builds a new filter of the same route; alice's bucket is still empty
+		GatewayFilter after = factory.apply(config(3));
+
+		assertThat(send(after, "patient-service-route", "alice")).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+		assertThat(send(after, "patient-service-route", "bob")).isNull();
+		assertThat(requests("patient-service-route", "allowed")).isEqualTo(4);
+		assertThat(requests("patient-service-route", "rejected")).isEqualTo(1);
+	}
+
+	@Test
+	void aClientHasABucketPerRoute() {
+		GatewayFilter filter = factory.apply(config(1));
+
+		assertThat(send(filter, "patient-service-route", "alice")).isNull();
+		assertThat(send(filter, "patient-service-route", "alice")).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+		assertThat(send(filter, "analytics-service-route", "alice")).isNull();
+		assertThat(requests("analytics-service-route", "allowed")).isEqualTo(1);
+	}
+
+	// The response status, null when the request went through
+	private static HttpStatus send(GatewayFilter filter, String routeId, String subject) {
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/patients"));
+		exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR,
+				Route.async().id(routeId).uri("http://localhost:4000").predicate(e -> true).build());
+		exchange.getAttributes().put(JwtValidationGatewayFilterFactory.SUBJECT_ATTRIBUTE, subject);
+		filter.filter(exchange, e -> Mono.empty()).block();
+		return (HttpStatus) exchange.getResponse().getStatusCode();
+	}
+
+	private double requests(String routeId, String outcome) {
+		return meterRegistry.get("gateway.rate.limit.requests").tag("route", routeId).tag("outcome", outcome)
+				.counter().count();
+	}
+
+	// A slow refill, so nothing comes back during the test
+	private static RateLimitGatewayFilterFactory.Config config(int capacity) {
+		RateLimitGatewayFilterFactory.Config config = new RateLimitGatewayFilterFactory.Config();
+		config.setCapacity(capacity);
+		config.setRefillPerSecond(0.01);
+		return config;
+	}
+}
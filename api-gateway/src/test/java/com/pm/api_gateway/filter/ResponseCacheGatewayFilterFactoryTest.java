@@ -0,0 +1,88 @@
+package com.pm.api_gateway.filter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCacheGatewayFilterFactoryTest {
+
+	private final GatewayFilter filter = new ResponseCacheGatewayFilterFactory(new SimpleMeterRegistry(), DataSize.ofMegabytes(1))
+			.apply(config());
+	// What the upstream service returns to a GET
+	private String state = "before";
+
+	@Test
+	void servesACachedResponseUntilAWrite() {
+		assertThat(get()).isEqualTo("MISS");
+		assertThat(get()).isEqualTo("HIT");
+
+		filter.filter(exchange(MockServerHttpRequest.post("/api/patients")), e -> Mono.empty()).block();
+
+		assertThat(get()).isEqualTo("MISS");
+	}
+
+	@Test
+	void aGetFetchedDuringAWriteIsNotServedAfterIt() {
+		Sinks.Empty<Void> write = Sinks.empty();
+		filter.filter(exchange(MockServerHttpRequest.post("/api/patients")), e -> write.asMono()).subscribe();
+
+		// Read while the service is still writing, so it gets the old state
+		assertThat(get()).isEqualTo("MISS");
+		state = "after";
+		write.tryEmitEmpty();
+
+		assertThat(get()).isEqualTo("MISS");
+		assertThat(get()).isEqualTo("HIT");
+	}
+
+	// The X-Cache status of a GET; the upstream answers with 'state'
+	private String get() {
+		MockServerWebExchange exchange = exchange(MockServerHttpRequest.get("/api/patients"));
+		String body = state;
+		filter.filter(exchange, upstream(body)).block();
+		return exchange.getResponse().getHeaders().getFirst("X-Cache");
+	}
+
+	// Like 'ResponseCaptureFilter', which copies the body while it is written to the client
+	private static GatewayFilterChain upstream(String body) {
+		return exchange -> {
+			ResponseCacheGatewayFilterFactory.Capture capture =
+					exchange.getAttribute(ResponseCacheGatewayFilterFactory.CAPTURE_ATTRIBUTE);
+			exchange.getResponse().setStatusCode(HttpStatus.OK);
+			if (capture != null && capture.start(exchange.getResponse())) {
+				capture.copy(DefaultDataBufferFactory.sharedInstance.wrap(body.getBytes(StandardCharsets.UTF_8)));
+				capture.complete();
+			}
+			return Mono.empty();
+		};
+	}
+
+	private static MockServerWebExchange exchange(MockServerHttpRequest.BaseBuilder<?> request) {
+		MockServerWebExchange exchange = MockServerWebExchange.from(request);
+		exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR,
+				Route.async().id("patient-service-route").uri("http://localhost:4000").predicate(e -> true).build());
+		exchange.getAttributes().put(JwtValidationGatewayFilterFactory.SUBJECT_ATTRIBUTE, "alice");
+		return exchange;
+	}
+
+	private static ResponseCacheGatewayFilterFactory.Config config() {
+		ResponseCacheGatewayFilterFactory.Config config = new ResponseCacheGatewayFilterFactory.Config();
+		config.setTtl(Duration.ofMinutes(1));
+		return config;
+	}
+}
@@ -0,0 +1,98 @@
+package com.pm.api_gateway.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenValidationCacheTest {
+
+	private final TokenValidationCache cache = cache(Duration.ofMinutes(10), Duration.ofMillis(300));
+
+	@Test
+	void aValidTokenIsCachedUntilItsExp() throws Exception {
+		String key = cache.key("token");
+		long exp = System.currentTimeMillis() + 500;
+
+		TokenValidationCache.Validation validation = cache.putValid(key, "testuser@test.com", "ADMIN", exp);
+
+		assertThat(validation.ttl()).isLessThanOrEqualTo(Duration.ofMillis(500));
+		assertThat(validation.expiresAt()).isEqualTo(exp / 1000);
+		assertThat(cache.get(key)).isEqualTo(validation);
+		Thread.sleep(exp - System.currentTimeMillis() + 50);
+		// Not a moment past 'exp': the next request validates the token again (and finds it expired)
+		assertThat(cache.get(key)).isNull();
+	}
+
+	@Test
+	void maxTtlCapsALongLivedToken() throws Exception {
+		TokenValidationCache shortCache = cache(Duration.ofMillis(300), Duration.ofSeconds(30));
+		String key = shortCache.key("token");
+
+		TokenValidationCache.Validation validation = shortCache.putValid(key, "testuser@test.com", "ADMIN",
+				System.currentTimeMillis() + Duration.ofHours(10).toMillis());
+
+		assertThat(validation.ttl()).isEqualTo(Duration.ofMillis(300));
+		assertThat(shortCache.get(key)).isNotNull();
+		Thread.sleep(400);
+		assertThat(shortCache.get(key)).isNull();
+	}
+
+	@Test
+	void anExpiredTokenIsNotCached() {
+		String key = cache.key("token");
+
+		TokenValidationCache.Validation validation = cache.putValid(key, "testuser@test.com", "ADMIN",
+				System.currentTimeMillis() - 1000);
+
+		assertThat(validation.valid()).isTrue();
+		assertThat(validation.ttl()).isZero();
+		assertThat(cache.get(key)).isNull();
+	}
+
+	@Test
+	void anInvalidTokenIsRememberedForTheNegativeTtl() throws Exception {
+		String key = cache.key("token");
+
+		cache.putInvalid(key);
+
+		assertThat(cache.get(key).valid()).isFalse();
+		Thread.sleep(400);
+		assertThat(cache.get(key)).isNull();
+	}
+
+	@Test
+	void readsTheExpOfAPayload() {
+		long exp = System.currentTimeMillis() / 1000 + 60;
+		String token = "header." + base64("{\"sub\":\"testuser@test.com\",\"role\":\"ADMIN\",\"exp\":" + exp + "}") + ".signature";
+		String key = cache.key(token);
+
+		TokenValidationCache.Validation validation = cache.putValidFromPayload(key, token);
+
+		assertThat(validation.subject()).isEqualTo("testuser@test.com");
+		assertThat(validation.role()).isEqualTo("ADMIN");
+		assertThat(validation.expiresAt()).isEqualTo(exp);
+		assertThat(validation.ttl()).isLessThanOrEqualTo(Duration.ofSeconds(60));
+		assertThat(cache.get(key)).isEqualTo(validation);
+		assertThat(cache.putValidFromPayload(cache.key("not-a-jwt"), "not-a-jwt")).isNull();
+	}
+
+	@Test
+	void theKeyIsNotTheToken() {
+		assertThat(cache.key("token")).isEqualTo(cache.key("token")).doesNotContain("token").hasSize(64);
+		assertThat(cache.key("token")).isNotEqualTo(cache.key("other"));
+	}
+
+	private static TokenValidationCache cache(Duration maxTtl, Duration negativeTtl) {
+		return new TokenValidationCache(new ObjectMapper(), new SimpleMeterRegistry(), 1000, maxTtl, negativeTtl);
+	}
+
+	private static String base64(String json) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+	}
+}
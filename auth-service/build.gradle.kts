@@ -29,6 +29,9 @@ dependencies {
 	runtimeOnly("io.jsonwebtoken:jjwt-impl:0.12.6")
 	runtimeOnly("io.jsonwebtoken:jjwt-jackson:0.12.6") // for JSON parsing
 
+	// Parsed-claims cache for '/validate'
+	implementation("com.github.ben-manes.caffeine:caffeine")
+
 	// PostgreSQL JDBC Driver
 	runtimeOnly("org.postgresql:postgresql")
 
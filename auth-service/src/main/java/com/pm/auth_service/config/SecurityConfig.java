@@ -1,5 +1,6 @@
 package com.pm.auth_service.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -18,9 +19,11 @@ public class SecurityConfig {
         return http.build();
     }
 
+    /** The cost is configurable so it can be tuned against the measured login latency;
+        stored hashes with another cost are rehashed on the next login (see 'PasswordHasher') */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${auth.bcrypt.strength:10}") int strength) {
+        return new BCryptPasswordEncoder(strength);
     }
 
 }
@@ -2,34 +2,40 @@ package com.pm.auth_service.controller;
 
 import com.pm.auth_service.dto.LoginRequestDTO;
 import com.pm.auth_service.dto.LoginResponseDTO;
+import com.pm.auth_service.dto.ValidateBatchRequestDTO;
+import com.pm.auth_service.dto.ValidateBatchResponseDTO;
 import com.pm.auth_service.service.AuthService;
 import io.swagger.v3.oas.annotations.Operation;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 public class AuthController {
 
+    // Keeps a single batch request from holding a request thread for too long
+    static final int MAX_BATCH_SIZE = 1000;
+
     private final AuthService authService;
 
     public AuthController(AuthService authService) {
         this.authService = authService;
     }
 
+    /** Async: the password check runs on the PasswordHasher pool, not on this request thread */
     @Operation(summary = "Generate token on user login")
     @PostMapping("/login")
-    public ResponseEntity<LoginResponseDTO> login(@RequestBody LoginRequestDTO loginRequestDTO) {
-        Optional<String> tokenOption = authService.authenticate(loginRequestDTO);
+    public CompletableFuture<ResponseEntity<LoginResponseDTO>> login(@RequestBody LoginRequestDTO loginRequestDTO) {
+        return authService.authenticate(loginRequestDTO).thenApply(tokenOption -> {
+            if (tokenOption.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            }
 
-        if (tokenOption.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        }
-
-        String token = tokenOption.get();
-        return ResponseEntity.ok(new LoginResponseDTO(token));
+            String token = tokenOption.get();
+            return ResponseEntity.ok(new LoginResponseDTO(token));
+        });
     }
 
     @Operation(summary = "Validate token")
@@ -46,5 +52,21 @@ public class AuthController {
                 : ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
     }
 
+    /** Validates many tokens in one round trip; always 200, with one true/false per token */
+    @Operation(summary = "Validate a batch of tokens")
+    @PostMapping("/validate/batch")
+    public ResponseEntity<ValidateBatchResponseDTO> validateTokens(
+         @RequestBody ValidateBatchRequestDTO validateBatchRequestDTO
+    ) {
+        if (validateBatchRequestDTO.getTokens() == null
+                || validateBatchRequestDTO.getTokens().size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok(
+                new ValidateBatchResponseDTO(authService.validateTokens(validateBatchRequestDTO.getTokens()))
+        );
+    }
+
 }
 
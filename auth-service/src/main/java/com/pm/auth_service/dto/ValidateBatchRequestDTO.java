@@ -0,0 +1,18 @@
+package com.pm.auth_service.dto;
+
+import java.util.List;
+
+public class ValidateBatchRequestDTO {
+
+    // The raw tokens, without the "Bearer " prefix
+    private List<String> tokens;
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    public void setTokens(List<String> tokens) {
+        this.tokens = tokens;
+    }
+
+}
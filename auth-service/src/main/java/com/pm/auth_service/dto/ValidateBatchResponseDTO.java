@@ -0,0 +1,18 @@
+package com.pm.auth_service.dto;
+
+import java.util.List;
+
+public class ValidateBatchResponseDTO {
+
+    // One entry per requested token, in the same order
+    private final List<Boolean> valid;
+
+    public List<Boolean> getValid() {
+        return valid;
+    }
+
+    public ValidateBatchResponseDTO(List<Boolean> valid) {
+        this.valid = valid;
+    }
+
+}
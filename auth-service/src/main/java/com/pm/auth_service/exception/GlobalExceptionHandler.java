@@ -0,0 +1,32 @@
+package com.pm.auth_service.exception;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@ControllerAdvice
+public class GlobalExceptionHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(GlobalExceptionHandler.class);
+
+    /** The password hashing pool is full; the client should retry shortly */
+    @ExceptionHandler(LoginOverloadedException.class)
+    public ResponseEntity<Map<String, String>> handleLoginOverloadedException(
+            LoginOverloadedException ex
+    ) {
+        log.warn("Login rejected {}", ex.getMessage());
+        Map<String, String> errors = new HashMap<>();
+        errors.put("message", "Too many logins in progress, try again shortly");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(errors);
+    }
+
+}
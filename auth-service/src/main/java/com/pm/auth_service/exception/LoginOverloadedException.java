@@ -0,0 +1,7 @@
+package com.pm.auth_service.exception;
+
+public class LoginOverloadedException extends RuntimeException {
+    public LoginOverloadedException(String message) {
+        super(message);
+    }
+}
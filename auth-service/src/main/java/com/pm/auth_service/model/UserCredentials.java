@@ -0,0 +1,8 @@
+package com.pm.auth_service.model;
+
+import java.util.UUID;
+
+/** What a login needs of a 'User', read straight from the 'users' table (no managed entity).
+    Immutable, so it can be cached and shared between threads. */
+public record UserCredentials(UUID id, String email, String password, String role) {
+}
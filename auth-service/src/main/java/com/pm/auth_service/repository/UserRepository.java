@@ -1,6 +1,7 @@
 package com.pm.auth_service.repository;
 
 import com.pm.auth_service.model.User;
+import com.pm.auth_service.model.UserCredentials;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 import java.util.Optional;
@@ -9,5 +10,8 @@ import java.util.UUID;
 @Repository
 public interface UserRepository extends JpaRepository<User, UUID> {
     Optional<User> findByEmail(String email);
+
+    // A DTO projection: only the columns, no entity in the persistence context
+    Optional<UserCredentials> findCredentialsByEmail(String email);
 }
 
@@ -1,33 +1,49 @@
 package com.pm.auth_service.service;
 
 import com.pm.auth_service.dto.LoginRequestDTO;
+import com.pm.auth_service.model.UserCredentials;
 import com.pm.auth_service.util.JwtUtil;
 import io.jsonwebtoken.JwtException;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class AuthService {
 
     private final UserService userService;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
     private final JwtUtil jwtUtil;
 
     public AuthService(
-         UserService userService, PasswordEncoder passwordEncoder, JwtUtil jwtUtil
+         UserService userService, PasswordHasher passwordHasher, JwtUtil jwtUtil
     ) {
         this.userService = userService;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHasher = passwordHasher;
         this.jwtUtil = jwtUtil;
     }
 
-    public Optional<String> authenticate(LoginRequestDTO loginRequestDTO) {
-        return userService.findUserByEmail(loginRequestDTO.getEmail())
-                .filter(
-                        u -> passwordEncoder.matches(loginRequestDTO.getPassword(), u.getPassword())
-                )
-                .map(u -> jwtUtil.generateToken(u.getEmail(), u.getRole()));
+    /** The password check runs on the PasswordHasher pool, so the request thread is released
+        while it runs. A hash made with an old cost is replaced after a successful login. */
+    public CompletableFuture<Optional<String>> authenticate(LoginRequestDTO loginRequestDTO) {
+        Optional<UserCredentials> user = userService.findUserByEmail(loginRequestDTO.getEmail());
+        if (user.isEmpty() || loginRequestDTO.getPassword() == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        UserCredentials u = user.get();
+        return passwordHasher.matches(loginRequestDTO.getPassword(), u.password())
+                .thenApply(matches -> {
+                    if (!matches) {
+                        return Optional.empty();
+                    }
+                    if (passwordHasher.needsRehash(u.password())) {
+                        passwordHasher.rehash(loginRequestDTO.getPassword(),
+                                encoded -> userService.updatePassword(u.id(), encoded));
+                    }
+                    return Optional.of(jwtUtil.generateToken(u.email(), u.role()));
+                });
     }
 
     public boolean validateToken(String token) {
@@ -38,5 +54,9 @@ public class AuthService {
             return false;
         }
     }
+
+    public List<Boolean> validateTokens(List<String> tokens) {
+        return tokens.stream().map(token -> token != null && validateToken(token)).toList();
+    }
 }
 
@@ -0,0 +1,101 @@
+package com.pm.auth_service.service;
+
+import com.pm.auth_service.exception.LoginOverloadedException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** BCrypt is deliberately slow (tens of ms of CPU per check), so we run it on its own pool
+    sized to the CPUs instead of on the request threads. When the queue is full, or a check has
+    waited longer than 'max-queue-wait-ms', the login fails fast instead of piling up, and
+    the request threads stay free for '/validate'. */
+@Component
+public class PasswordHasher {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHasher.class);
+
+    // $2a$10$... / $2b$12$... ; the number is the cost (log2 of the rounds)
+    private static final Pattern BCRYPT_COST = Pattern.compile("^\\$2[abxy]?\\$(\\d\\d)\\$");
+
+    private final PasswordEncoder passwordEncoder;
+    private final int strength;
+    private final long maxQueueWaitNanos;
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHasher(
+            PasswordEncoder passwordEncoder,
+            @Value("${auth.bcrypt.strength:10}") int strength,
+            @Value("${auth.bcrypt.threads:0}") int threads,
+            @Value("${auth.bcrypt.queue-capacity:64}") int queueCapacity,
+            @Value("${auth.bcrypt.max-queue-wait-ms:2000}") long maxQueueWaitMs
+    ) {
+        this.passwordEncoder = passwordEncoder;
+        this.strength = strength;
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs);
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        // The default AbortPolicy throws RejectedExecutionException when the queue is full
+        this.executor = new ThreadPoolExecutor(
+                poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "bcrypt-" + count.incrementAndGet())
+        );
+    }
+
+    /** @return whether the password matches; fails with LoginOverloadedException when we're too busy */
+    public CompletableFuture<Boolean> matches(String rawPassword, String encodedPassword) {
+        long queuedAt = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                // The client has probably given up by now; don't spend the CPU on it
+                if (System.nanoTime() - queuedAt > maxQueueWaitNanos) {
+                    throw new LoginOverloadedException("waited too long for a password check");
+                }
+                return passwordEncoder.matches(rawPassword, encodedPassword);
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new LoginOverloadedException("password check queue is full"));
+        }
+    }
+
+    /** A hash made with another cost than 'auth.bcrypt.strength' (higher or lower) */
+    public boolean needsRehash(String encodedPassword) {
+        Matcher matcher = BCRYPT_COST.matcher(encodedPassword);
+        return matcher.find() && Integer.parseInt(matcher.group(1)) != strength;
+    }
+
+    /** Hashes in the background; the new hash is handed to 'onHashed'. Skipped when we're busy,
+        the next login tries again. */
+    public void rehash(String rawPassword, Consumer<String> onHashed) {
+        try {
+            executor.execute(() -> {
+                try {
+                    onHashed.accept(passwordEncoder.encode(rawPassword));
+                } catch (RuntimeException e) {
+                    log.warn("Password rehash failed: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Password rehash skipped, the pool is busy");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
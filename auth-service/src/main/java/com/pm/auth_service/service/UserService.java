@@ -1,22 +1,80 @@
 package com.pm.auth_service.service;
 
-import com.pm.auth_service.model.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.pm.auth_service.model.UserCredentials;
 import com.pm.auth_service.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.UUID;
 
 @Service
 public class UserService {
 
     private final UserRepository userRepository;
 
-    public UserService(UserRepository userRepository) {
+    /** Users by email, so a login doesn't query the database every time. Unknown emails are
+        cached too (as empty), for a shorter time, so credential stuffing against accounts that
+        don't exist doesn't reach the database either. Anything that changes a user must call
+        'evictUser' (or 'evictAll' for bulk changes made outside this service). We cache the
+        immutable 'UserCredentials', not the JPA entities. */
+    private final Cache<String, Optional<UserCredentials>> usersByEmail;
+
+    public UserService(
+            UserRepository userRepository,
+            @Value("${auth.user-cache.maximum-size:10000}") long maximumSize,
+            @Value("${auth.user-cache.ttl:5m}") Duration ttl,
+            @Value("${auth.user-cache.negative-ttl:1m}") Duration negativeTtl
+    ) {
         this.userRepository = userRepository;
+        this.usersByEmail = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, Optional<UserCredentials>>() {
+                    @Override
+                    public long expireAfterCreate(String email, Optional<UserCredentials> user, long currentTime) {
+                        return (user.isPresent() ? ttl : negativeTtl).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String email, Optional<UserCredentials> user, long currentTime, long currentDuration) {
+                        return expireAfterCreate(email, user, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String email, Optional<UserCredentials> user, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
     }
 
-    public Optional<User> findUserByEmail(String email) {
-        return userRepository.findByEmail(email);
+    public Optional<UserCredentials> findUserByEmail(String email) {
+        // A login without an email (e.g. an empty body) is just unknown; the cache takes no null key
+        if (email == null || email.isBlank()) {
+            return Optional.empty();
+        }
+        // Concurrent logins for the same email share one query
+        return usersByEmail.get(email, userRepository::findCredentialsByEmail);
     }
 
-}
+    // 'save' commits before we evict, so a login in between can't cache the old password again
+    public void updatePassword(UUID userId, String encodedPassword) {
+        userRepository.findById(userId).ifPresent(user -> {
+            user.setPassword(encodedPassword);
+            userRepository.save(user);
+            evictUser(user.getEmail());
+        });
+    }
 
+    public void evictUser(String email) {
+        usersByEmail.invalidate(email);
+    }
+
+    public void evictAll() {
+        usersByEmail.invalidateAll();
+    }
+
+}
@@ -1,6 +1,11 @@
 package com.pm.auth_service.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import io.jsonwebtoken.security.SignatureException;
@@ -9,17 +14,51 @@ import org.springframework.stereotype.Component;
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.Date;
+import java.util.HexFormat;
 
 @Component
 public class JwtUtil {
     private final Key secretKey;
 
-    public JwtUtil(@Value("${jwt.secret}") String secretKey) {
+    // Built once; the parser is immutable and thread-safe
+    private final JwtParser parser;
+
+    /** The claims of tokens we've already verified, keyed by a SHA-256 of the token, so a
+        client reusing its token is verified once. Each entry expires with its token.
+        Null when 'jwt.claims-cache.maximum-size' is 0. */
+    private final Cache<String, Claims> claimsCache;
+
+    public JwtUtil(
+            @Value("${jwt.secret}") String secretKey,
+            @Value("${jwt.claims-cache.maximum-size:100000}") long claimsCacheSize
+    ) {
         byte[] keyBytes = Base64.getDecoder()
                 .decode(secretKey.getBytes(StandardCharsets.UTF_8));
         this.secretKey = Keys.hmacShaKeyFor(keyBytes);
+        this.parser = Jwts.parser().verifyWith((SecretKey) this.secretKey).build();
+        this.claimsCache = claimsCacheSize <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(claimsCacheSize)
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String key, Claims claims, long currentTime) {
+                        return untilExpiration(claims);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+                        return untilExpiration(claims);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
     }
 
     public String generateToken(String email, String role) {
@@ -33,15 +72,35 @@ public class JwtUtil {
     }
 
     public void validateToken(String token)  {
+        String key = claimsCache == null ? null : digest(token);
+        if (key != null && claimsCache.getIfPresent(key) != null) {
+            return;
+        }
         try {
-            Jwts.parser().verifyWith((SecretKey) secretKey)
-                    .build()
-                    .parseSignedClaims(token);
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            // Tokens without an 'exp' never expire, so we don't keep them around
+            if (key != null && claims.getExpiration() != null) {
+                claimsCache.put(key, claims);
+            }
         } catch (SignatureException e) {
             throw new JwtException("Invalid JWT signature");
-        } catch (JwtException e) {
+        } catch (JwtException | IllegalArgumentException e) {
             throw new JwtException("Invalid JWT token");
         }
     }
-}
 
+    private static long untilExpiration(Claims claims) {
+        long millis = claims.getExpiration().getTime() - System.currentTimeMillis();
+        return Math.max(0, millis) * 1_000_000;
+    }
+
+    private static String digest(String token) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8))
+            );
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.pm.auth_service.service;
+
+import com.pm.auth_service.dto.LoginRequestDTO;
+import com.pm.auth_service.model.UserCredentials;
+import com.pm.auth_service.util.JwtUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuthServiceTest {
+
+	private static final UUID USER_ID = UUID.randomUUID();
+	private static final String EMAIL = "testuser@test.com";
+
+	private final UserService userService = mock(UserService.class);
+	private final JwtUtil jwtUtil = mock(JwtUtil.class);
+	// 'auth.bcrypt.strength' is 5 now
+	private final PasswordHasher passwordHasher = new PasswordHasher(new BCryptPasswordEncoder(5), 5, 1, 8, 2000);
+	private final AuthService authService = new AuthService(userService, passwordHasher, jwtUtil);
+
+	@AfterEach
+	void shutdown() {
+		passwordHasher.shutdown();
+	}
+
+	@Test
+	void aLoginReplacesAHashOfAnOldCost() {
+		givenUserWithHash(new BCryptPasswordEncoder(4).encode("password123"));
+
+		assertThat(authService.authenticate(login("password123")).join()).contains("token");
+
+		verify(userService, timeout(5000)).updatePassword(eq(USER_ID), argThat(hash -> hash.startsWith("$2a$05$")));
+	}
+
+	@Test
+	void aHashOfTheCurrentCostIsKept() {
+		givenUserWithHash(new BCryptPasswordEncoder(5).encode("password123"));
+
+		assertThat(authService.authenticate(login("password123")).join()).contains("token");
+
+		verify(userService, after(200).never()).updatePassword(eq(USER_ID), anyString());
+	}
+
+	@Test
+	void aFailedLoginDoesNotRehash() {
+		givenUserWithHash(new BCryptPasswordEncoder(4).encode("password123"));
+
+		assertThat(authService.authenticate(login("wrong")).join()).isEmpty();
+
+		verify(userService, after(200).never()).updatePassword(eq(USER_ID), anyString());
+		verify(jwtUtil, never()).generateToken(anyString(), anyString());
+	}
+
+	private void givenUserWithHash(String hash) {
+		when(userService.findUserByEmail(EMAIL)).thenReturn(Optional.of(new UserCredentials(USER_ID, EMAIL, hash, "ADMIN")));
+		when(jwtUtil.generateToken(EMAIL, "ADMIN")).thenReturn("token");
+	}
+
+	private static LoginRequestDTO login(String password) {
+		LoginRequestDTO loginRequestDTO = new LoginRequestDTO();
+		// No setters: Jackson fills the fields of a request
+		ReflectionTestUtils.setField(loginRequestDTO, "email", EMAIL);
+		ReflectionTestUtils.setField(loginRequestDTO, "password", password);
+		return loginRequestDTO;
+	}
+}
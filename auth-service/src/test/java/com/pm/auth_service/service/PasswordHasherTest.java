@@ -0,0 +1,138 @@
+package com.pm.auth_service.service;
+
+import com.pm.auth_service.exception.LoginOverloadedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PasswordHasherTest {
+
+	// The lowest cost BCrypt takes, so the tests don't spend their time hashing
+	private static final int COST = 4;
+
+	private PasswordHasher hasher;
+
+	@AfterEach
+	void shutdown() {
+		if (hasher != null) {
+			hasher.shutdown();
+		}
+	}
+
+	@Test
+	void matchesOnThePool() {
+		BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(COST);
+		hasher = new PasswordHasher(encoder, COST, 1, 8, 2000);
+		String hash = encoder.encode("secret");
+
+		assertThat(hasher.matches("secret", hash).join()).isTrue();
+		assertThat(hasher.matches("wrong", hash).join()).isFalse();
+	}
+
+	@Test
+	void aCheckThatWaitedTooLongFailsFastWithoutHashing() throws Exception {
+		PasswordEncoder encoder = mock(PasswordEncoder.class);
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(encoder.matches(eq("first"), anyString())).thenAnswer(invocation -> {
+			running.countDown();
+			release.await();
+			return true;
+		});
+		hasher = new PasswordHasher(encoder, COST, 1, 8, 50);
+
+		// The only thread is busy with the first check, so the second one waits in the queue
+		CompletableFuture<Boolean> first = hasher.matches("first", "hash");
+		assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+		CompletableFuture<Boolean> second = hasher.matches("second", "hash");
+		Thread.sleep(100);
+		release.countDown();
+
+		assertThat(first.join()).isTrue();
+		assertThat(second).failsWithin(5, TimeUnit.SECONDS)
+				.withThrowableThat().havingCause().isInstanceOf(LoginOverloadedException.class)
+				.withMessage("waited too long for a password check");
+		verify(encoder, never()).matches(eq("second"), anyString());
+	}
+
+	@Test
+	void aCheckThatDidNotWaitLongIsRun() throws Exception {
+		PasswordEncoder encoder = mock(PasswordEncoder.class);
+		CountDownLatch release = new CountDownLatch(1);
+		when(encoder.matches(eq("first"), anyString())).thenAnswer(invocation -> release.await(5, TimeUnit.SECONDS));
+		when(encoder.matches(eq("second"), anyString())).thenReturn(true);
+		hasher = new PasswordHasher(encoder, COST, 1, 8, 5000);
+
+		CompletableFuture<Boolean> first = hasher.matches("first", "hash");
+		CompletableFuture<Boolean> second = hasher.matches("second", "hash");
+		release.countDown();
+
+		assertThat(first.join()).isTrue();
+		assertThat(second.join()).isTrue();
+	}
+
+	@Test
+	void aFullQueueFailsRightAway() throws Exception {
+		PasswordEncoder encoder = mock(PasswordEncoder.class);
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(encoder.matches(anyString(), anyString())).thenAnswer(invocation -> {
+			running.countDown();
+			return release.await(5, TimeUnit.SECONDS);
+		});
+		hasher = new PasswordHasher(encoder, COST, 1, 1, 5000);
+
+		CompletableFuture<Boolean> running1 = hasher.matches("first", "hash");
+		assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+		CompletableFuture<Boolean> queued = hasher.matches("second", "hash");
+		CompletableFuture<Boolean> rejected = hasher.matches("third", "hash");
+
+		assertThat(rejected).isCompletedExceptionally();
+		assertThat(rejected).failsWithin(0, TimeUnit.SECONDS)
+				.withThrowableThat().havingCause().isInstanceOf(LoginOverloadedException.class)
+				.withMessage("password check queue is full");
+		release.countDown();
+		assertThat(running1.join()).isTrue();
+		assertThat(queued.join()).isTrue();
+	}
+
+	@Test
+	void needsRehashWhenTheCostChanged() {
+		String cost4 = new BCryptPasswordEncoder(4).encode("secret");
+		String cost5 = new BCryptPasswordEncoder(5).encode("secret");
+		hasher = new PasswordHasher(new BCryptPasswordEncoder(5), 5, 1, 8, 2000);
+
+		// Lower and higher than 'auth.bcrypt.strength' both get rehashed
+		assertThat(hasher.needsRehash(cost4)).isTrue();
+		assertThat(hasher.needsRehash(cost5)).isFalse();
+		assertThat(hasher.needsRehash(new BCryptPasswordEncoder(6).encode("secret"))).isTrue();
+		assertThat(hasher.needsRehash("not a bcrypt hash")).isFalse();
+	}
+
+	@Test
+	void rehashHandsOverAHashWithTheNewCost() throws Exception {
+		BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(5);
+		hasher = new PasswordHasher(encoder, 5, 1, 8, 2000);
+		CompletableFuture<String> rehashed = new CompletableFuture<>();
+
+		hasher.rehash("secret", rehashed::complete);
+
+		String hash = rehashed.get(5, TimeUnit.SECONDS);
+		assertThat(hash).startsWith("$2a$05$");
+		assertThat(hasher.needsRehash(hash)).isFalse();
+		assertThat(encoder.matches("secret", hash)).isTrue();
+	}
+}
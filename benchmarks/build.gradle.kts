@@ -0,0 +1,50 @@
+plugins {
+	java
+	id("me.champeau.jmh") version "0.7.3"
+}
+
+group = "com.pm"
+version = "0.0.1-SNAPSHOT"
+
+java {
+	toolchain {
+		languageVersion = JavaLanguageVersion.of(21)
+	}
+}
+
+repositories {
+	mavenCentral()
+}
+
+dependencies {
+	// The services leave their Spring dependency versions to the Boot plugin, so we need the same BOM here
+	jmh(platform("org.springframework.boot:spring-boot-dependencies:3.4.5"))
+
+	jmh("com.pm:patient-service")
+	jmh("com.pm:auth-service")
+	jmh("com.pm:analytics-service")
+
+	// The services only expose these at runtime, but the benchmarks call them directly
+	jmh("com.google.protobuf:protobuf-java:4.29.1")
+	jmh("jakarta.persistence:jakarta.persistence-api")
+	jmh("org.springframework.security:spring-security-crypto")
+	jmh("org.apache.kafka:kafka-clients")
+	jmh("org.springframework:spring-context")
+}
+
+/** Run with './gradlew jmh'. Each benchmark class sets its own mode and unit. '-prof gc' reports the bytes allocated per operation
+    (gc.alloc.rate.norm), which is the number to watch for regressions in these paths.
+    A single benchmark can be picked with '-Pjmh.includes=PatientMapper' */
+jmh {
+	jmhVersion = "1.37"
+	profilers = listOf("gc")
+	fork = 1
+	warmupIterations = 3
+	warmup = "2s"
+	iterations = 5
+	timeOnIteration = "2s"
+	resultFormat = "JSON"
+	if (project.hasProperty("jmh.includes")) {
+		includes = listOf(project.property("jmh.includes").toString())
+	}
+}
@@ -0,0 +1,7 @@
+rootProject.name = "benchmarks"
+
+// The services are separate builds; including them lets us benchmark their real classes
+// (and the protobuf classes they generate) instead of copies
+includeBuild("../patient-service")
+includeBuild("../auth-service")
+includeBuild("../analytics-service")
@@ -0,0 +1,71 @@
+package com.pm.benchmarks;
+
+import com.pm.auth_service.service.AuthService;
+import com.pm.auth_service.util.JwtUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** '/login' signs a token and every request through the gateway validates one. Measured as
+    throughput on 4 threads, since '/validate' is called concurrently by every gateway request. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class JwtUtilBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private JwtUtil jwtUtil;
+    // Same key, but a claims cache of size 0: every call parses and verifies the token
+    private JwtUtil uncachedJwtUtil;
+    private AuthService authService;
+    private String token;
+    private List<String> batch;
+
+    @Setup
+    public void setup() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        String secret = Base64.getEncoder().encodeToString(key);
+        jwtUtil = new JwtUtil(secret, 100_000);
+        uncachedJwtUtil = new JwtUtil(secret, 0);
+        // 'validateTokens' doesn't use the user service or the password encoder
+        authService = new AuthService(null, null, jwtUtil);
+
+        token = jwtUtil.generateToken("testuser@test.com", "ADMIN");
+        batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(jwtUtil.generateToken("user" + i + "@test.com", "ADMIN"));
+        }
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtUtil.generateToken("testuser@test.com", "ADMIN");
+    }
+
+    @Benchmark
+    public String validateToken() {
+        uncachedJwtUtil.validateToken(token);
+        return token;
+    }
+
+    // A reused token: a digest and a cache lookup
+    @Benchmark
+    public String validateTokenCached() {
+        jwtUtil.validateToken(token);
+        return token;
+    }
+
+    // What '/validate/batch' does for 100 tokens; the score is per token
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Boolean> validateBatch() {
+        return authService.validateTokens(batch);
+    }
+}
@@ -0,0 +1,41 @@
+package com.pm.benchmarks;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.*;
+import patient.events.PatientEvent;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/** The PatientEvent encoding done by the patient-service and the decoding done by the
+    analytics-service 'KafkaConsumer' for every message on the 'patient' topic */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PatientEventBenchmark {
+
+    private String patientId;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        patientId = UUID.randomUUID().toString();
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return PatientEvent.newBuilder()
+                .setPatientId(patientId)
+                .setName("John Doe")
+                .setEmail("john.doe@example.com")
+                .setEventType("PATIENT_CREATED")
+                .build()
+                .toByteArray();
+    }
+
+    @Benchmark
+    public PatientEvent decode() throws InvalidProtocolBufferException {
+        return PatientEvent.parseFrom(encoded);
+    }
+}
@@ -0,0 +1,79 @@
+package com.pm.benchmarks;
+
+import com.pm.analytics_service.aggregation.PatientEventAggregator;
+import com.pm.analytics_service.kafka.PatientEventBatchProcessor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.*;
+import patient.events.PatientEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/** Events per second through the analytics-service 'PatientEventBatchProcessor', for a poll of
+    'max-poll-records' (1000) records spread over 1, 4 and 8 partitions of the 'patient' topic,
+    with as many processing threads as partitions. Every event is also counted by the
+    'PatientEventAggregator', as in the service. 'oneRecordPerCall' is the old listener: one
+    record per call, all on the listener thread. The broker fetch isn't part of it; that needs a
+    real cluster to mean anything. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PatientEventConsumerBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"1", "4", "8"})
+    public int partitions;
+
+    private List<ConsumerRecord<String, byte[]>> batch;
+    private PatientEventBatchProcessor processor;
+    private PatientEventBatchProcessor singleThreaded;
+
+    @Setup
+    public void setup() {
+        batch = new ArrayList<>(BATCH_SIZE);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String patientId = UUID.randomUUID().toString();
+            byte[] event = PatientEvent.newBuilder()
+                    .setPatientId(patientId)
+                    .setName("Patient " + i)
+                    .setEmail("patient" + i + "@example" + (i % 50) + ".com")
+                    .setEventType("PATIENT_CREATED")
+                    .build()
+                    .toByteArray();
+            batch.add(new ConsumerRecord<>("patient", i % partitions, i / partitions, now + i,
+                    TimestampType.CREATE_TIME, patientId.length(), event.length, patientId, event,
+                    new RecordHeaders(), Optional.empty()));
+        }
+        processor = new PatientEventBatchProcessor(partitions, new PatientEventAggregator(0, 10000));
+        singleThreaded = new PatientEventBatchProcessor(1, new PatientEventAggregator(0, 10000));
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.shutdown();
+        singleThreaded.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int batch() {
+        return processor.process(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int oneRecordPerCall() {
+        int processed = 0;
+        for (ConsumerRecord<String, byte[]> record : batch) {
+            processed += singleThreaded.process(List.of(record));
+        }
+        return processed;
+    }
+}
@@ -0,0 +1,68 @@
+package com.pm.benchmarks;
+
+import billing.BillingRequest;
+import com.pm.patient_service.dto.PatientRequestDTO;
+import com.pm.patient_service.dto.PatientResponseDTO;
+import com.pm.patient_service.mapper.PatientMapper;
+import com.pm.patient_service.model.OutboxEvent;
+import com.pm.patient_service.model.Patient;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/** The mapping done for every patient we read, create, publish to Kafka and send to billing */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PatientMapperBenchmark {
+
+    private Patient patient;
+    private PatientRequestDTO patientRequestDTO;
+
+    @Setup
+    public void setup() {
+        patient = new Patient();
+        patient.setId(UUID.randomUUID());
+        patient.setName("John Doe");
+        patient.setEmail("john.doe@example.com");
+        patient.setAddress("123 Main St, Springfield");
+        patient.setDateOfBirth(LocalDate.parse("1985-06-15"));
+        patient.setRegisterDate(LocalDate.parse("2024-01-10"));
+
+        patientRequestDTO = new PatientRequestDTO();
+        patientRequestDTO.setName("John Doe");
+        patientRequestDTO.setEmail("john.doe@example.com");
+        patientRequestDTO.setAddress("123 Main St, Springfield");
+        patientRequestDTO.setDateOfBirth("1985-06-15");
+        patientRequestDTO.setRegisteredDate("2024-01-10");
+    }
+
+    @Benchmark
+    public PatientResponseDTO toDTO() {
+        return PatientMapper.toDTO(patient);
+    }
+
+    @Benchmark
+    public Patient toModel() {
+        return PatientMapper.toModel(patientRequestDTO);
+    }
+
+    // Builds and encodes the PatientEvent that the outbox relay publishes
+    @Benchmark
+    public OutboxEvent toOutboxEvent() {
+        return PatientMapper.toOutboxEvent(patient, "PATIENT_CREATED");
+    }
+
+    @Benchmark
+    public BillingRequest toBillingRequest() {
+        return PatientMapper.toBillingRequest(patient);
+    }
+
+    // What 'createBillingAccount' puts on the wire
+    @Benchmark
+    public byte[] billingRequestToByteArray() {
+        return PatientMapper.toBillingRequest(patient).toByteArray();
+    }
+}
@@ -1,12 +1,19 @@
 package com.pm.billing_service.grpc;
 
+import billing.BillingBatchRequest;
+import billing.BillingBatchResponse;
+import billing.BillingRequest;
 import billing.BillingResponse;
 import billing.BillingServiceGrpc;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import net.devh.boot.grpc.server.service.GrpcService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
 /** This tells Spring that this is a Grpc Service.
    We also extend the BillingServiceImplBase class that was generated */
 @GrpcService
@@ -25,18 +32,99 @@ public class BillingGrpcService extends BillingServiceGrpc.BillingServiceImplBas
     ) {
         log.info("createBillingAccount request received {}", billingRequest.toString());
 
-        // save data to the database
-
-        // We create the BillingResponse
-        BillingResponse response = BillingResponse.newBuilder()
-                .setAccountId("12345").setStatus("ACTIVE").build();
-
         // We then respond with the BillingResponse
-        responseObserver.onNext(response);
+        responseObserver.onNext(createAccount(billingRequest));
 
         // We close the response stream
         responseObserver.onCompleted();
     }
 
-}
+    /** One request carries the whole batch, so the client pays one round trip for all of it */
+    @Override
+    public void createBillingAccounts(
+        BillingBatchRequest batchRequest,
+        StreamObserver<BillingBatchResponse> responseObserver
+    ) {
+        log.info("createBillingAccounts request received for {} accounts", batchRequest.getRequestsCount());
+
+        BillingBatchResponse.Builder response = BillingBatchResponse.newBuilder();
+        for (BillingRequest billingRequest : batchRequest.getRequestsList()) {
+            response.addResponses(createAccount(billingRequest));
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    /** The client streams the requests and we answer each one as it arrives. We ask gRPC for
+        the next request only when the client can take another response ('isReady'),
+        so a fast sender can't fill our memory with responses the client hasn't read yet. */
+    @Override
+    public StreamObserver<BillingRequest> streamBillingAccounts(
+        StreamObserver<BillingResponse> responseObserver
+    ) {
+        ServerCallStreamObserver<BillingResponse> serverObserver =
+                (ServerCallStreamObserver<BillingResponse>) responseObserver;
+        serverObserver.disableAutoRequest();
+
+        // 'wasReady' makes sure we only request the next message once per 'onReady' transition
+        class OnReadyHandler implements Runnable {
+            private boolean wasReady = false;
 
+            @Override
+            public void run() {
+                if (serverObserver.isReady() && !wasReady) {
+                    wasReady = true;
+                    serverObserver.request(1);
+                }
+            }
+        }
+        OnReadyHandler onReadyHandler = new OnReadyHandler();
+        serverObserver.setOnReadyHandler(onReadyHandler);
+
+        return new StreamObserver<>() {
+            private int count = 0;
+
+            @Override
+            public void onNext(BillingRequest billingRequest) {
+                serverObserver.onNext(createAccount(billingRequest));
+                count++;
+                if (serverObserver.isReady()) {
+                    serverObserver.request(1);
+                } else {
+                    // The client is behind; the 'OnReadyHandler' asks for more when it catches up
+                    onReadyHandler.wasReady = false;
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                log.warn("streamBillingAccounts cancelled after {} accounts: {}", count, t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                log.info("streamBillingAccounts created {} accounts", count);
+                serverObserver.onCompleted();
+            }
+        };
+    }
+
+    /** A patient has one billing account, so creating it is idempotent: a request sent again
+        (the client retries the patients whose answer it didn't get) gets the account that
+        already exists, not a second one. The account id is derived from the patient id; the
+        database write this stands in for must likewise be an upsert keyed by 'patientId'. */
+    private BillingResponse createAccount(BillingRequest billingRequest) {
+        // save data to the database
+
+        // We create the BillingResponse
+        return BillingResponse.newBuilder()
+                .setAccountId(accountId(billingRequest.getPatientId())).setStatus("ACTIVE")
+                .setPatientId(billingRequest.getPatientId())
+                .build();
+    }
+
+    private static String accountId(String patientId) {
+        return UUID.nameUUIDFromBytes(("billing-account:" + patientId).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+}
@@ -79,7 +79,9 @@ public class LocalStack extends Stack {
                         /// service address as being on docker internal address and also the port
                         Map.of(
                                 "BILLING_SERVICE_ADDRESS", "host.docker.internal",
-                                "BILLING_SERVICE_GRPC_PORT", "9001"
+                                "BILLING_SERVICE_GRPC_PORT", "9001",
+                                /// The same key as the api-gateway, to check the identity headers it signs
+                                "IDENTITY_SECRET", "c2lnbmVkLWlkZW50aXR5LWhlYWRlcnMta2V5LTIwMjY="
                         )
                 );
         /// We tell the CDK that PatientService has dependency on the below services
@@ -253,7 +255,11 @@ public class LocalStack extends Stack {
                   /// Because LocalStack doesn't implement ECS cloud discovery functionality, we manually provide the host and port
                     .environment(Map.of(
                             "SPRING_PROFILES_ACTIVE", "prod",
-                            "AUTH_SERVICE_URL", "http://host.docker.internal:4005"
+                            "AUTH_SERVICE_URL", "http://host.docker.internal:4005",
+                            /// The same key as the AuthService, so the gateway can verify tokens without calling it
+                            "JWT_SECRET", "QWtVajVpZjUxcTMzcTJscU9aOFpqT3ZLMVVDTXRndEo=",
+                            /// Signs the identity headers the services get instead of the token; only they know it
+                            "IDENTITY_SECRET", "c2lnbmVkLWlkZW50aXR5LWhlYWRlcnMta2V5LTIwMjY="
                     ))
               .portMappings(List.of(4004).stream()
                    .map(port -> PortMapping.builder().containerPort(port).hostPort(port).protocol(Protocol.TCP).build()).toList()
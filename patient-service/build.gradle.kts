@@ -40,6 +40,14 @@ dependencies {
 	implementation("org.springdoc:springdoc-openapi-starter-webmvc-ui:2.8.8")
 	implementation("com.h2database:h2")
 
+	// Patient cache (Caffeine) and its hit/miss/eviction metrics
+	implementation("org.springframework.boot:spring-boot-starter-cache")
+	implementation("com.github.ben-manes.caffeine:caffeine")
+
+	// Bloom filter of the taken emails (EmailIndex); the version gRPC already brings in
+	implementation("com.google.guava:guava:33.3.1-android")
+	implementation("org.springframework.boot:spring-boot-starter-actuator")
+
 	implementation("org.springframework.boot:spring-boot-starter-data-jpa")
 	implementation("org.springframework.boot:spring-boot-starter-validation")
 	implementation("org.springframework.boot:spring-boot-starter-web")
@@ -2,8 +2,12 @@ package com.pm.patient_service;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableCaching // The 'patients' cache in PatientService
+@EnableScheduling // Runs the OutboxRelay
 public class PatientServiceApplication {
 
 	public static void main(String[] args) {
@@ -1,5 +1,9 @@
 package com.pm.patient_service.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.pm.patient_service.dto.PatientBulkResultDTO;
 import com.pm.patient_service.dto.PatientRequestDTO;
 import com.pm.patient_service.dto.PatientResponseDTO;
 import com.pm.patient_service.dto.validators.CreatePatientValidationGroup;
@@ -7,36 +11,123 @@ import com.pm.patient_service.service.PatientService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.groups.Default;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/patients")
 @Tag(name = "Patient", description = "API for managing patients")
 public class PatientController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final PatientService patientService;
-    public PatientController(PatientService patientService) {
+    private final ObjectWriter patientWriter;
+    public PatientController(PatientService patientService, ObjectMapper objectMapper) {
         this.patientService = patientService;
+        // We keep the response stream open between patients, so the writer must not close it
+        this.patientWriter = objectMapper.writerFor(PatientResponseDTO.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
+    /** When a page is full we return the id of its last patient in the 'X-Next-Cursor' header;
+        the client passes it back as 'after' to get the next page. */
     @GetMapping
     @Operation(summary = "Get Patients")
-    public ResponseEntity<List<PatientResponseDTO>> getPatients() {
-        List<PatientResponseDTO> patientResponseDTOS = patientService.getPatient();
-        return ResponseEntity.ok(patientResponseDTOS);
+    public ResponseEntity<List<PatientResponseDTO>> getPatients(
+            @RequestParam(required = false) UUID after,
+            @RequestParam(defaultValue = "100") int limit
+    ) {
+        int pageSize = Math.clamp(limit, 1, PatientService.MAX_PAGE_SIZE);
+        List<PatientResponseDTO> patientResponseDTOS = patientService.getPatient(after, pageSize);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (patientResponseDTOS.size() == pageSize) {
+            response.header(NEXT_CURSOR_HEADER, patientResponseDTOS.getLast().getId());
+        }
+        return response.body(patientResponseDTOS);
+    }
+
+    /** All the filters are optional and combined with AND; dates are ISO (yyyy-MM-dd) and
+        the ranges include both ends. Paged like 'GET /patients' with 'after' and 'X-Next-Cursor'. */
+    @GetMapping("/search")
+    @Operation(summary = "Search Patients")
+    public ResponseEntity<List<PatientResponseDTO>> searchPatients(
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String emailDomain,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dateOfBirthFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dateOfBirthTo,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate registeredFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate registeredTo,
+            @RequestParam(required = false) UUID after,
+            @RequestParam(defaultValue = "100") int limit
+    ) {
+        int pageSize = Math.clamp(limit, 1, PatientService.MAX_PAGE_SIZE);
+        List<PatientResponseDTO> patientResponseDTOS = patientService.searchPatients(
+                name, emailDomain, dateOfBirthFrom, dateOfBirthTo, registeredFrom, registeredTo, after, pageSize
+        );
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (patientResponseDTOS.size() == pageSize) {
+            response.header(NEXT_CURSOR_HEADER, patientResponseDTOS.getLast().getId());
+        }
+        return response.body(patientResponseDTOS);
+    }
+
+    @GetMapping("/{id}")
+    @Operation(summary = "Get a Patient")
+    public ResponseEntity<PatientResponseDTO> getPatient(@PathVariable UUID id) {
+        PatientResponseDTO patientResponseDTO = patientService.getPatientById(id);
+        return ResponseEntity.ok(patientResponseDTO);
+    }
+
+    /** Writes every patient as one JSON object per line (NDJSON) while the rows are read
+        from the database, so memory stays flat no matter how big the table is. */
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Stream all Patients as NDJSON")
+    public ResponseEntity<StreamingResponseBody> streamPatients() {
+        StreamingResponseBody body = outputStream -> patientService.streamPatients(patient -> {
+            try {
+                patientWriter.writeValue(outputStream, patient);
+                outputStream.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
+    /** Returning a future lets Tomcat take the request thread back while we wait for the
+        billing service; the response is written when the future completes */
     @PostMapping
     @Operation(summary = "Create a new Patients")
-    public ResponseEntity<PatientResponseDTO> createPatients(
+    public CompletableFuture<ResponseEntity<PatientResponseDTO>> createPatients(
             @Validated({Default.class, CreatePatientValidationGroup.class})
             @RequestBody PatientRequestDTO patientRequestDTO) {
-        PatientResponseDTO patientResponseDTO = patientService.createPatient(patientRequestDTO);
-        return ResponseEntity.ok(patientResponseDTO);
+        return patientService.createPatient(patientRequestDTO).thenApply(ResponseEntity::ok);
+    }
+
+    /** Every row gets a result at the same position as in the request,
+        so the client can tell which rows were created and which were rejected.
+        The created patients are saved when we answer, but their billing accounts are still
+        being created in the background, hence 202 Accepted; billing failures are logged.
+        More rows than 'patient.bulk.max-size' is a 400; split the import into several requests. */
+    @PostMapping("/bulk")
+    @Operation(summary = "Create many Patients at once")
+    public ResponseEntity<List<PatientBulkResultDTO>> createPatientsInBulk(
+            @RequestBody List<PatientRequestDTO> patientRequestDTOS) {
+        List<PatientBulkResultDTO> results = patientService.createPatients(patientRequestDTOS);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(results);
     }
 
     @PutMapping("/{id}")
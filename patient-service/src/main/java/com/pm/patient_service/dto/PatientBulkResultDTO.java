@@ -0,0 +1,61 @@
+package com.pm.patient_service.dto;
+
+/** The outcome of one row of a bulk import; 'index' is the position of the row in the request */
+public class PatientBulkResultDTO {
+
+    public static final String CREATED = "CREATED";
+    public static final String REJECTED = "REJECTED";
+
+    private int index;
+    private String status;
+    private String message;
+    private PatientResponseDTO patient;
+
+    public static PatientBulkResultDTO created(int index, PatientResponseDTO patient) {
+        PatientBulkResultDTO result = new PatientBulkResultDTO();
+        result.setIndex(index);
+        result.setStatus(CREATED);
+        result.setPatient(patient);
+        return result;
+    }
+
+    public static PatientBulkResultDTO rejected(int index, String message) {
+        PatientBulkResultDTO result = new PatientBulkResultDTO();
+        result.setIndex(index);
+        result.setStatus(REJECTED);
+        result.setMessage(message);
+        return result;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public PatientResponseDTO getPatient() {
+        return patient;
+    }
+
+    public void setPatient(PatientResponseDTO patient) {
+        this.patient = patient;
+    }
+}
@@ -28,6 +28,10 @@ public class PatientRequestDTO {
         return registeredDate;
     }
 
+    public void setRegisteredDate(String registeredDate) {
+        this.registeredDate = registeredDate;
+    }
+
     public String getName() {
         return name;
     }
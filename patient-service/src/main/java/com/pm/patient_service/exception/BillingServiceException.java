@@ -0,0 +1,7 @@
+package com.pm.patient_service.exception;
+
+public class BillingServiceException extends RuntimeException {
+    public BillingServiceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
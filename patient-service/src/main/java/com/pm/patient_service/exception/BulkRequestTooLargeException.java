@@ -0,0 +1,7 @@
+package com.pm.patient_service.exception;
+
+public class BulkRequestTooLargeException extends RuntimeException {
+    public BulkRequestTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -2,6 +2,7 @@ package com.pm.patient_service.exception;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -47,4 +48,24 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(errors);
     }
 
+    @ExceptionHandler(BulkRequestTooLargeException.class)
+    public ResponseEntity<Map<String, String>> handleBulkRequestTooLargeException(
+            BulkRequestTooLargeException ex
+    ) {
+        log.warn("Bulk request too large {}", ex.getMessage());
+        Map<String, String> errors = new HashMap<>();
+        errors.put("message", ex.getMessage());
+        return ResponseEntity.badRequest().body(errors);
+    }
+
+    @ExceptionHandler(BillingServiceException.class)
+    public ResponseEntity<Map<String, String>> handleBillingServiceException(
+            BillingServiceException ex
+    ) {
+        log.warn("Billing service error {}", ex.getMessage());
+        Map<String, String> errors = new HashMap<>();
+        errors.put("message", "Billing service unavailable");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errors);
+    }
+
 }
@@ -0,0 +1,122 @@
+package com.pm.patient_service.filter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/** The api-gateway validates the token once and sends us the caller's identity in signed
+    X-Auth-* headers instead of the token (see the gateway's 'IdentitySigner'). We only trust
+    those headers, and only with a valid signature: one HMAC per request instead of parsing
+    and verifying the JWT again. The verified identity is put in the request attribute
+    'GatewayIdentityFilter.IDENTITY_ATTRIBUTE' for the controllers (@RequestAttribute).
+
+    The key 'identity.secret' (env IDENTITY_SECRET) must be the gateway's. Without it the filter
+    does nothing, like before. Only the /patients API is checked; the API docs, actuator and
+    h2-console are not. */
+@Component
+public class GatewayIdentityFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(GatewayIdentityFilter.class);
+
+    public static final String IDENTITY_ATTRIBUTE = GatewayIdentityFilter.class.getName() + ".identity";
+
+    private static final String SUBJECT_HEADER = "X-Auth-Subject";
+    private static final String ROLE_HEADER = "X-Auth-Role";
+    private static final String EXPIRES_HEADER = "X-Auth-Expires";
+    private static final String SIGNATURE_HEADER = "X-Auth-Signature";
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /** Who the gateway says is calling; 'expiresAt' is the token's 'exp' in epoch seconds */
+    public record Identity(String subject, String role, long expiresAt) {}
+
+    // Initialised once with the key; every check works on a clone, which skips the provider lookup
+    private final Mac prototype;
+
+    public GatewayIdentityFilter(@Value("${identity.secret:}") String secret) {
+        if (secret.isBlank()) {
+            this.prototype = null;
+            log.info("identity.secret not set; X-Auth-* headers are not checked");
+            return;
+        }
+        try {
+            this.prototype = Mac.getInstance(ALGORITHM);
+            this.prototype.init(new SecretKeySpec(Base64.getDecoder().decode(secret), ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can't use identity.secret as an HMAC key", e);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return prototype == null || !request.getRequestURI().startsWith("/patients");
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain chain
+    ) throws ServletException, IOException {
+        String subject = request.getHeader(SUBJECT_HEADER);
+        String role = request.getHeader(ROLE_HEADER);
+        String expires = request.getHeader(EXPIRES_HEADER);
+        String signature = request.getHeader(SIGNATURE_HEADER);
+
+        if (subject == null || expires == null || signature == null) {
+            unauthorized(response, "Missing identity headers");
+            return;
+        }
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(expires);
+        } catch (NumberFormatException e) {
+            unauthorized(response, "Invalid identity headers");
+            return;
+        }
+        // Constant time, so the comparison doesn't tell how much of a forged signature was right
+        if (!MessageDigest.isEqual(sign(subject, role, expiresAt), signature.getBytes(StandardCharsets.US_ASCII))) {
+            unauthorized(response, "Invalid identity headers");
+            return;
+        }
+        if (expiresAt <= System.currentTimeMillis() / 1000) {
+            unauthorized(response, "Token expired");
+            return;
+        }
+
+        request.setAttribute(IDENTITY_ATTRIBUTE, new Identity(subject, role, expiresAt));
+        chain.doFilter(request, response);
+    }
+
+    // Same as the gateway: base64url HMAC-SHA256 of "subject\nrole\nexpires"
+    private byte[] sign(String subject, String role, long expiresAt) {
+        try {
+            Mac mac = (Mac) prototype.clone();
+            byte[] signature = mac.doFinal((subject + "\n" + (role == null ? "" : role) + "\n" + expiresAt)
+                    .getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encode(signature);
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e); // the JDK's HMAC implementations can be cloned
+        }
+    }
+
+    private void unauthorized(HttpServletResponse response, String message) throws IOException {
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"message\":\"" + message + "\"}");
+    }
+}
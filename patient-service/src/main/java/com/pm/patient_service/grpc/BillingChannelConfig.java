@@ -0,0 +1,70 @@
+package com.pm.patient_service.grpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** The gRPC channel to the billing service is a bean, so it is created once, shared by every
+    stub and shut down with the application. All the channel settings can be tuned from the
+    'billing.service.grpc.*' properties. */
+@Configuration
+public class BillingChannelConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(BillingChannelConfig.class);
+
+    /** The executor that runs the gRPC callbacks (i.e., completes our futures);
+        a fixed pool keeps a burst of responses from creating a thread per call.
+        In virtual-thread mode every callback gets its own virtual thread instead.
+        It is not a bean: an Executor bean would make Spring Boot skip its own
+        'applicationTaskExecutor', which runs the async MVC requests (GET /patients/stream). */
+    private ExecutorService callbackExecutor;
+
+    /** We inject the grpc server address from environment variables
+       'billing-service' refers to the Billing service container in docker
+       '9001' refers to the Billing service container port in docker
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ManagedChannel billingChannel(
+            @Value("${billing.service.address:localhost}") String serverAddress,
+            @Value("${billing.service.grpc.port:9001}") String serverPort,
+            @Value("${billing.service.grpc.keepalive-time-ms:30000}") long keepAliveTimeMs,
+            @Value("${billing.service.grpc.keepalive-timeout-ms:10000}") long keepAliveTimeoutMs,
+            @Value("${billing.service.grpc.idle-timeout-ms:300000}") long idleTimeoutMs,
+            @Value("${billing.service.grpc.max-inbound-message-size:4194304}") int maxInboundMessageSize,
+            @Value("${billing.service.grpc.executor-threads:8}") int threads,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads
+    ) {
+        callbackExecutor = virtualThreads
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(threads);
+        log.info("Connecting to GRPC Billing service at {}:{}", serverAddress, serverPort);
+        return NettyChannelBuilder
+                .forAddress(serverAddress, Integer.parseInt(serverPort))
+                .usePlaintext() // Disables encryption for local testing
+                // Pings keep the connection (and the NAT/load balancer entries) alive and
+                // let us notice a dead billing pod before a request hangs on it
+                .keepAliveTime(keepAliveTimeMs, TimeUnit.MILLISECONDS)
+                .keepAliveTimeout(keepAliveTimeoutMs, TimeUnit.MILLISECONDS)
+                .idleTimeout(idleTimeoutMs, TimeUnit.MILLISECONDS)
+                .maxInboundMessageSize(maxInboundMessageSize)
+                .executor(callbackExecutor)
+                .build();
+    }
+
+    // The channel is shut down first (it's created by this configuration), so no callback is left
+    @PreDestroy
+    public void shutdownCallbackExecutor() {
+        if (callbackExecutor != null) {
+            callbackExecutor.shutdown();
+        }
+    }
+}
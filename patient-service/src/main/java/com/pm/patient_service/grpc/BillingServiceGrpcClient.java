@@ -1,17 +1,30 @@
 package com.pm.patient_service.grpc;
 
+import billing.BillingBatchRequest;
+import billing.BillingBatchResponse;
 import billing.BillingRequest;
 import billing.BillingResponse;
 import billing.BillingServiceGrpc;
+import com.pm.patient_service.exception.BillingServiceException;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
-import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class BillingServiceGrpcClient {
@@ -19,22 +32,22 @@ public class BillingServiceGrpcClient {
     private static final Logger log = LoggerFactory.getLogger(BillingServiceGrpcClient.class);
     // We will use 'BillingServiceBlockingStub' to make a gRPC synchronous request
     private final BillingServiceGrpc.BillingServiceBlockingStub blockingStub;
+    // The 'BillingServiceStub' sends the request without waiting; the response comes back on a callback
+    private final BillingServiceGrpc.BillingServiceStub asyncStub;
+    private final long deadlineMs;
+    private final long streamDeadlineMs;
 
-    /** We inject the grpc server address from environment variables
-       'billing-service' refers to the Billing service container in docker
-       '9001' refers to the Billing service container port in docker
-     */
+    /** The channel comes from 'BillingChannelConfig'; every call gets a deadline, so a slow
+        billing pod can't hold one of our threads for longer than 'deadline-ms' */
     public BillingServiceGrpcClient(
-            @Value("${billing.service.address:localhost}") String serverAddress,
-            @Value("${billing.service.grpc.port:9001}") String serverPort
+            ManagedChannel billingChannel,
+            @Value("${billing.service.grpc.deadline-ms:3000}") long deadlineMs,
+            @Value("${billing.service.grpc.stream-deadline-ms:600000}") long streamDeadlineMs
     ) {
-        log.info("Connecting to GRPC Billing service at {}:{}", serverAddress, serverPort);
-        // We use the serverAddress and serverPort to create a managed channel
-        ManagedChannel channel = ManagedChannelBuilder
-                .forAddress(serverAddress, Integer.parseInt(serverPort))
-                .usePlaintext() // Disables encryption for local testing
-                .build();
-        this.blockingStub = BillingServiceGrpc.newBlockingStub(channel);
+        this.blockingStub = BillingServiceGrpc.newBlockingStub(billingChannel);
+        this.asyncStub = BillingServiceGrpc.newStub(billingChannel);
+        this.deadlineMs = deadlineMs;
+        this.streamDeadlineMs = streamDeadlineMs;
     }
 
     public BillingResponse createBillingAccount(
@@ -45,9 +58,113 @@ public class BillingServiceGrpcClient {
                 .setPatientId(patientId).setName(name).setEmail(email).build();
 
         // We send the request and return the response
-        BillingResponse response = blockingStub.createBillingAccount(request);
+        BillingResponse response = blockingStub
+                .withDeadlineAfter(deadlineMs, TimeUnit.MILLISECONDS)
+                .createBillingAccount(request);
         log.info("Received GRPC billing response: {}", response.toString());
         return response;
     }
-}
 
+    /** Sends the request without blocking the caller. The future fails with a
+        'BillingServiceException' when the call fails or misses its deadline. */
+    public CompletableFuture<BillingResponse> createBillingAccountAsync(BillingRequest request) {
+        CompletableFuture<BillingResponse> result = new CompletableFuture<>();
+        asyncStub.withDeadlineAfter(deadlineMs, TimeUnit.MILLISECONDS)
+                .createBillingAccount(request, new StreamObserver<>() {
+                    @Override
+                    public void onNext(BillingResponse response) {
+                        log.info("Received GRPC billing response: {}", response.toString());
+                        result.complete(response);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        result.completeExceptionally(new BillingServiceException(
+                                "Billing account creation failed for patient " + request.getPatientId(), t
+                        ));
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+        return result;
+    }
+
+    /** Sends a whole batch of billing requests in one 'CreateBillingAccounts' call.
+        The responses are returned in the same order as the requests; a request that
+        failed gets a null response so the caller can report it on its own. */
+    public List<BillingResponse> createBillingAccounts(List<BillingRequest> requests) {
+        BillingBatchRequest batchRequest = BillingBatchRequest.newBuilder().addAllRequests(requests).build();
+        try {
+            BillingBatchResponse batchResponse = blockingStub
+                    .withDeadlineAfter(deadlineMs, TimeUnit.MILLISECONDS)
+                    .createBillingAccounts(batchRequest);
+            log.info("Received GRPC billing responses for a batch of {}", batchResponse.getResponsesCount());
+            Map<String, BillingResponse> responses = batchResponse.getResponsesList().stream()
+                    .collect(Collectors.toMap(BillingResponse::getPatientId, Function.identity(), (a, b) -> a));
+            return requests.stream().map(request -> responses.get(request.getPatientId())).toList();
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.UNIMPLEMENTED) {
+                // An older billing service without the batch call; we fall back to one call per request
+                return createBillingAccountsOneByOne(requests);
+            }
+            log.warn("Billing batch of {} failed: {}", requests.size(), e.getStatus());
+            return requests.stream().map(request -> (BillingResponse) null).toList();
+        }
+    }
+
+    // We send all the requests at once and then wait for all the responses
+    private List<BillingResponse> createBillingAccountsOneByOne(List<BillingRequest> requests) {
+        List<CompletableFuture<BillingResponse>> futures = requests.stream()
+                .map(request -> createBillingAccountAsync(request).exceptionally(ex -> null))
+                .toList();
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /** Pushes any number of requests over one 'StreamBillingAccounts' stream, for bulk
+        onboarding and backfills. We only write while the transport can take more ('isReady'),
+        so the requests are pulled from the iterator as fast as billing can keep up and never
+        pile up in memory. Each response is handed to 'onResponse' as it arrives; the future
+        completes when billing has answered every request. */
+    public CompletableFuture<Void> streamBillingAccounts(
+            Iterator<BillingRequest> requests, Consumer<BillingResponse> onResponse
+    ) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        asyncStub.withDeadlineAfter(streamDeadlineMs, TimeUnit.MILLISECONDS)
+                .streamBillingAccounts(new ClientResponseObserver<BillingRequest, BillingResponse>() {
+                    private boolean sentAll = false;
+
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<BillingRequest> requestStream) {
+                        // Runs every time the stream becomes writable again
+                        requestStream.setOnReadyHandler(() -> {
+                            while (!sentAll && requestStream.isReady()) {
+                                if (!requests.hasNext()) {
+                                    sentAll = true;
+                                    requestStream.onCompleted();
+                                    return;
+                                }
+                                requestStream.onNext(requests.next());
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onNext(BillingResponse response) {
+                        onResponse.accept(response);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        result.completeExceptionally(new BillingServiceException("Billing account stream failed", t));
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        result.complete(null);
+                    }
+                });
+        return result;
+    }
+}
@@ -1,40 +1,78 @@
 package com.pm.patient_service.kafka;
 
-import com.pm.patient_service.model.Patient;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.pm.patient_service.model.OutboxEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.kafka.KafkaException;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
-import patient.events.PatientEvent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class KafkaProducer {
 
-    private static final Logger log = LoggerFactory.getLogger(KafkaProducer.class);
+    public static final String TOPIC = "patient";
+
     /** This is the type of event we will be sending to the kafka server
        our event will have a key of String type and a value of byte array */
     private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Timer acknowledged;
+    private final Timer failed;
 
-    public KafkaProducer(KafkaTemplate<String, byte[]> kafkaTemplate) {
+    /** The producer itself (idempotence, batching, compression) is set up with the
+        'spring.kafka.producer.*' properties; its own metrics are at /actuator/metrics/kafka.producer.* */
+    public KafkaProducer(KafkaTemplate<String, byte[]> kafkaTemplate, MeterRegistry meterRegistry) {
         this.kafkaTemplate = kafkaTemplate;
+        this.meterRegistry = meterRegistry;
+        this.acknowledged = meterRegistry.timer("patient.events.send", "outcome", "acknowledged");
+        this.failed = meterRegistry.timer("patient.events.send", "outcome", "failed");
     }
 
-    public void sendEvent(Patient patient) {
+    /** We send the serialized PatientEvent keyed by the patient id, so all the events of a
+        patient land on the same partition and are consumed in the order they were written.
+        The returned future completes when the broker has acknowledged the record, or fails with
+        why it couldn't be written. Every send is timed until then ('patient.events.send', by
+        outcome), and failures are counted by cause ('patient.events.send.errors'). */
+    public CompletableFuture<SendResult<String, byte[]>> send(OutboxEvent event) {
+        long started = System.nanoTime();
+        CompletableFuture<SendResult<String, byte[]>> send;
+        try {
+            send = kafkaTemplate.send(TOPIC, event.getAggregateId(), event.getPayload());
+        } catch (RuntimeException e) {
+            // e.g. no metadata for the topic within 'max.block.ms'
+            recordFailure(started, e);
+            throw e;
+        }
+        // Runs on the producer's I/O thread, so it only records
+        return send.whenComplete((result, error) -> {
+            if (error == null) {
+                acknowledged.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            } else {
+                recordFailure(started, error);
+            }
+        });
+    }
 
-        // We create a PatientEvent from the generated stub
-        PatientEvent event = PatientEvent.newBuilder()
-                .setPatientId(patient.getId().toString())
-                .setName(patient.getName())
-                .setEmail(patient.getEmail())
-                .setEventType("PATIENT_CREATED")
-                .build();
+    private void recordFailure(long started, Throwable error) {
+        failed.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("patient.events.send.errors", "cause", cause(error).getClass().getSimpleName())
+                .increment();
+    }
 
-        try {
-            // We then send the PatientEvent
-            kafkaTemplate.send("patient", event.toByteArray());
-        } catch (Exception e) {
-            log.info("Error sending a PatientCreated event: {}", event);
+    // KafkaTemplate wraps the producer's exception (KafkaProducerException), which tells us nothing
+    static Throwable cause(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException
+                || cause instanceof KafkaException) && cause.getCause() != null) {
+            cause = cause.getCause();
         }
+        return cause;
     }
 
 }
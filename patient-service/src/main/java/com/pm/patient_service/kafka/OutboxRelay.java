@@ -0,0 +1,253 @@
+package com.pm.patient_service.kafka;
+
+import com.pm.patient_service.model.OutboxEvent;
+import com.pm.patient_service.repository.OutboxEventRepository;
+import com.pm.patient_service.repository.OutboxLeaseRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.common.errors.RetriableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/** Drains the 'patient_outbox' table to the 'patient' topic in the background, so the request
+    thread never waits on the broker. Delivery is at-least-once: an event is only deleted after
+    the broker acknowledged it, and a failed event is retried with an exponential backoff.
+    The events of a patient are published in order: while one of them waits for its retry, the
+    later ones wait behind it. An event that keeps failing with an error a retry can't fix (e.g.
+    a record too large) is parked after 'patient.outbox.max-attempts' and the patient's later
+    events go on without it; errors of an unavailable broker are retried for as long as it takes.
+    That order needs a single sender, so the replicas take turns: the relay only runs while its
+    replica holds the lease in 'patient_outbox_lease', and renews it before every batch. When the
+    replica stops (or stops renewing), another one takes the lease over within
+    'patient.outbox.lease-ms'. The lease times come from the replicas' clocks, so keep them in sync. */
+@Component
+@ConditionalOnProperty(name = "patient.outbox.relay.enabled", havingValue = "true", matchIfMissing = true)
+public class OutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+    private static final String LEASE = "outbox-relay";
+    private final OutboxEventRepository outboxEventRepository;
+    private final OutboxLeaseRepository outboxLeaseRepository;
+    private final KafkaProducer kafkaProducer;
+    private final int batchSize;
+    private final long sendTimeoutMs;
+    private final int maxAttempts;
+    private final long retryBackoffMs;
+    private final long maxRetryBackoffMs;
+    private final long leaseMs;
+    private final Counter parked;
+    // Who we are in the lease table; a restarted replica is a new owner
+    private final String owner = UUID.randomUUID().toString();
+    private boolean leaseHeld;
+    private volatile boolean stopped;
+
+    public OutboxRelay(
+            OutboxEventRepository outboxEventRepository,
+            OutboxLeaseRepository outboxLeaseRepository,
+            KafkaProducer kafkaProducer,
+            MeterRegistry meterRegistry,
+            @Value("${patient.outbox.batch-size:500}") int batchSize,
+            @Value("${patient.outbox.send-timeout-ms:30000}") long sendTimeoutMs,
+            @Value("${patient.outbox.max-attempts:10}") int maxAttempts,
+            @Value("${patient.outbox.retry-backoff-ms:1000}") long retryBackoffMs,
+            @Value("${patient.outbox.max-retry-backoff-ms:300000}") long maxRetryBackoffMs,
+            @Value("${patient.outbox.lease-ms:60000}") long leaseMs
+    ) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.outboxLeaseRepository = outboxLeaseRepository;
+        this.kafkaProducer = kafkaProducer;
+        this.batchSize = batchSize;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMs = retryBackoffMs;
+        this.maxRetryBackoffMs = maxRetryBackoffMs;
+        this.leaseMs = leaseMs;
+        this.parked = meterRegistry.counter("patient.outbox.parked");
+    }
+
+    /** We keep draining full batches until the outbox has nothing due or a send fails. A failed
+        or postponed event isn't due anymore, so it can't hold the rest of the outbox back.
+        A replica without the lease does nothing; it tries to take the lease on every poll. */
+    @Scheduled(fixedDelayString = "${patient.outbox.poll-interval-ms:500}")
+    public synchronized void relay() {
+        List<OutboxEvent> batch;
+        do {
+            if (!holdsLease()) return;
+            batch = outboxEventRepository.findDue(Instant.now(), Limit.of(batchSize));
+        } while (publish(batch) && batch.size() == batchSize);
+    }
+
+    /** Takes or renews the lease for the next 'lease-ms'. That has to be longer than one batch
+        can take ('send-timeout-ms'), or another replica could take over while we still send. */
+    private boolean holdsLease() {
+        boolean held = false;
+        if (!stopped) {
+            Instant now = Instant.now();
+            Instant lockedUntil = now.plusMillis(leaseMs);
+            held = outboxLeaseRepository.acquire(LEASE, owner, now, lockedUntil) == 1
+                    || !outboxLeaseRepository.existsById(LEASE) && create(lockedUntil);
+        }
+        if (held != leaseHeld) {
+            log.info(held ? "This replica relays the outbox now" : "This replica stopped relaying the outbox");
+            leaseHeld = held;
+        }
+        return held;
+    }
+
+    // The first relay ever creates the lease row; when two start together, one of them gets it
+    private boolean create(Instant lockedUntil) {
+        try {
+            return outboxLeaseRepository.create(LEASE, owner, lockedUntil) == 1;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    /** On shutdown we let the running batch finish and free the lease, so another replica
+        takes over on its next poll instead of after 'lease-ms' */
+    @PreDestroy
+    public void releaseLease() {
+        stopped = true;
+        synchronized (this) {
+            if (leaseHeld) {
+                outboxLeaseRepository.release(LEASE, owner, Instant.now());
+                leaseHeld = false;
+            }
+        }
+    }
+
+    /** Sends the batch and returns true if no send failed. The records of a patient share a
+        key, so the producer keeps them in order on their partition. Once a send of a patient
+        failed or wasn't answered, the later events of that patient in the batch are kept in the
+        outbox, even the acknowledged ones: they are sent again after the failed one, so the
+        last event the consumers see is still the latest one. */
+    private boolean publish(List<OutboxEvent> batch) {
+        if (batch.isEmpty()) return true;
+
+        Instant now = Instant.now();
+        // Patients with an earlier event waiting for its retry
+        Map<String, OutboxEventRepository.WaitingPatient> waitingPatients = outboxEventRepository
+                .findWaitingPatients(now).stream()
+                .collect(Collectors.toMap(OutboxEventRepository.WaitingPatient::getAggregateId, Function.identity()));
+
+        Map<Long, CompletableFuture<?>> sends = new HashMap<>();
+        Map<Long, Throwable> rejected = new HashMap<>();
+        Set<String> rejectedPatients = new HashSet<>();
+        for (OutboxEvent event : batch) {
+            if (waitsBehind(event, waitingPatients) || rejectedPatients.contains(event.getAggregateId())) continue;
+            try {
+                sends.put(event.getId(), kafkaProducer.send(event));
+            } catch (Exception e) {
+                // 'send' throws right away when the producer can't get the topic metadata
+                rejected.put(event.getId(), e);
+                rejectedPatients.add(event.getAggregateId());
+            }
+        }
+
+        // One deadline for the whole batch: the sends run concurrently, and their callbacks
+        // already completed the futures with the broker's answer
+        try {
+            CompletableFuture.allOf(sends.values().toArray(CompletableFuture[]::new))
+                    .get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Some sends failed or are still running; each one is looked at below
+        }
+
+        // In id order, so we know for each event whether an earlier one of its patient failed
+        List<Long> published = new ArrayList<>();
+        Map<Instant, List<Long>> failed = new HashMap<>();
+        Map<Instant, List<Long>> postponed = new HashMap<>();
+        List<Long> parkedIds = new ArrayList<>();
+        Map<String, Instant> blockedUntil = new HashMap<>();
+        for (OutboxEvent event : batch) {
+            Instant until = blockedUntil.get(event.getAggregateId());
+            if (until == null && waitsBehind(event, waitingPatients)) {
+                until = waitingPatients.get(event.getAggregateId()).getNextAttemptAt();
+            }
+            if (until != null) {
+                postponed.computeIfAbsent(until, key -> new ArrayList<>()).add(event.getId());
+                continue;
+            }
+
+            CompletableFuture<?> send = sends.get(event.getId());
+            Throwable error = rejected.get(event.getId());
+            if (send == null && error == null) {
+                continue; // Held back behind a rejected event that was parked since: it goes on the next run
+            }
+            if (send != null && send.state() == Future.State.SUCCESS) {
+                published.add(event.getId());
+                continue;
+            }
+            if (send != null && send.state() == Future.State.FAILED) {
+                error = send.exceptionNow();
+            }
+
+            int attempt = event.getAttempts() + 1;
+            if (error == null) {
+                log.warn("No acknowledgement for outbox event {} (attempt {}) within {} ms",
+                        event.getId(), attempt, sendTimeoutMs);
+            } else {
+                log.warn("Error sending outbox event {} (attempt {}): {}", event.getId(), attempt, KafkaProducer.cause(error).toString());
+            }
+            // An unavailable broker (no answer, or a retriable error) is retried for as long as it takes
+            boolean retriable = error == null || KafkaProducer.cause(error) instanceof RetriableException;
+            if (!retriable && attempt >= maxAttempts) {
+                log.error("Giving up on outbox event {} ({} of patient {}) after {} attempts; it is parked",
+                        event.getId(), event.getEventType(), event.getAggregateId(), attempt);
+                parkedIds.add(event.getId());
+                continue;
+            }
+            Instant retryAt = now.plusMillis(backoff(attempt));
+            failed.computeIfAbsent(retryAt, key -> new ArrayList<>()).add(event.getId());
+            blockedUntil.put(event.getAggregateId(), retryAt);
+        }
+
+        if (!published.isEmpty()) outboxEventRepository.deleteAllByIdInBatch(published);
+        failed.forEach((retryAt, ids) -> outboxEventRepository.recordFailedAttempt(ids, retryAt));
+        postponed.forEach((until, ids) -> outboxEventRepository.postpone(ids, until));
+        if (!parkedIds.isEmpty()) {
+            outboxEventRepository.park(parkedIds, now);
+            parked.increment(parkedIds.size());
+        }
+        int failures = failed.values().stream().mapToInt(List::size).sum();
+        log.debug("Published {} outbox events, {} failed, {} postponed, {} parked",
+                published.size(), failures, postponed.values().stream().mapToInt(List::size).sum(), parkedIds.size());
+        return failures == 0;
+    }
+
+    // The patient has an earlier event waiting for its retry
+    private static boolean waitsBehind(OutboxEvent event, Map<String, OutboxEventRepository.WaitingPatient> waitingPatients) {
+        OutboxEventRepository.WaitingPatient waiting = waitingPatients.get(event.getAggregateId());
+        return waiting != null && waiting.getFirstId() < event.getId();
+    }
+
+    // 1s, 2s, 4s, ... up to 'max-retry-backoff-ms'
+    private long backoff(int attempt) {
+        return Math.min(maxRetryBackoffMs, retryBackoffMs << Math.min(attempt - 1, 30));
+    }
+}
@@ -0,0 +1,53 @@
+package com.pm.patient_service.kafka;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.pm.patient_service.service.PatientService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+import patient.events.PatientEvent;
+
+import java.util.UUID;
+
+/** When we run several replicas, each one caches patients on its own, so an update on one
+    replica would leave a stale copy on the others. With 'patient.cache.kafka-invalidation.enabled'
+    every replica listens to the 'patient' topic and drops the patients that were updated or
+    deleted. Each replica uses its own random group id, so every replica gets every event. */
+@Component
+@ConditionalOnProperty(name = "patient.cache.kafka-invalidation.enabled", havingValue = "true")
+public class PatientCacheInvalidator {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientCacheInvalidator.class);
+    private final Cache patientsCache;
+
+    public PatientCacheInvalidator(CacheManager cacheManager) {
+        this.patientsCache = cacheManager.getCache(PatientService.PATIENTS_CACHE);
+    }
+
+    @KafkaListener(
+            topics = "patient",
+            groupId = "patient-service-cache-${random.uuid}",
+            properties = {
+                    "key.deserializer=org.apache.kafka.common.serialization.StringDeserializer",
+                    "value.deserializer=org.apache.kafka.common.serialization.ByteArrayDeserializer",
+                    // A new replica starts with an empty cache, so it only needs the new events
+                    "auto.offset.reset=latest"
+            }
+    )
+    public void consumeEvent(byte[] event) {
+        try {
+            PatientEvent patientEvent = PatientEvent.parseFrom(event);
+            switch (patientEvent.getEventType()) {
+                case "PATIENT_UPDATED", "PATIENT_DELETED" ->
+                        patientsCache.evict(UUID.fromString(patientEvent.getPatientId()));
+                default -> { }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            log.error("Error deserializing event {}", e.getMessage());
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.pm.patient_service.mapper;
 
+import billing.BillingRequest;
 import com.pm.patient_service.dto.PatientRequestDTO;
 import com.pm.patient_service.dto.PatientResponseDTO;
+import com.pm.patient_service.model.OutboxEvent;
 import com.pm.patient_service.model.Patient;
+import patient.events.PatientEvent;
 
 import java.time.LocalDate;
 
@@ -28,4 +31,23 @@ public class PatientMapper {
         return patient;
     }
 
+    // We create a PatientEvent from the generated stub and keep it in the outbox until it is published
+    public static OutboxEvent toOutboxEvent(Patient patient, String eventType) {
+        PatientEvent event = PatientEvent.newBuilder()
+                .setPatientId(patient.getId().toString())
+                .setName(patient.getName())
+                .setEmail(patient.getEmail())
+                .setEventType(eventType)
+                .build();
+        return new OutboxEvent(patient.getId().toString(), eventType, event.toByteArray());
+    }
+
+    public static BillingRequest toBillingRequest(Patient patient) {
+        return BillingRequest.newBuilder()
+                .setPatientId(patient.getId().toString())
+                .setName(patient.getName())
+                .setEmail(patient.getEmail())
+                .build();
+    }
+
 }
@@ -0,0 +1,84 @@
+package com.pm.patient_service.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/** A Kafka event waiting to be published. It is written in the same transaction as the
+    patient change it describes, so the event exists if and only if the change was committed. */
+@Entity
+@Table(name = "patient_outbox", indexes = @Index(name = "idx_patient_outbox_next_attempt_at", columnList = "next_attempt_at"))
+public class OutboxEvent {
+    /** The sequence gives every event a strictly increasing id, which is the publishing order;
+        'allocationSize' lets Hibernate hand out ids without a round trip per insert */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "patient_outbox_seq")
+    @SequenceGenerator(name = "patient_outbox_seq", sequenceName = "patient_outbox_seq", allocationSize = 50)
+    private Long id;
+
+    // The patient id; it is also the Kafka record key, so events of a patient stay in order
+    @Column(nullable = false)
+    private String aggregateId;
+
+    @Column(nullable = false)
+    private String eventType;
+
+    // The serialized PatientEvent
+    @Column(nullable = false, length = 4096)
+    private byte[] payload;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    // How many times publishing this event has failed so far
+    @Column(nullable = false)
+    private int attempts;
+
+    // Not before this time (after a failure, or behind a failed event of the same patient); null is now
+    private Instant nextAttemptAt;
+
+    // Set when the relay gave up on the event; it stays in the table for someone to look at
+    private Instant parkedAt;
+
+    protected OutboxEvent() {
+    }
+
+    public OutboxEvent(String aggregateId, String eventType, byte[] payload) {
+        this.aggregateId = aggregateId;
+        this.eventType = eventType;
+        this.payload = payload;
+        this.createdAt = Instant.now();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getAggregateId() {
+        return aggregateId;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public Instant getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public Instant getParkedAt() {
+        return parkedAt;
+    }
+}
@@ -0,0 +1,38 @@
+package com.pm.patient_service.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/** Which replica may run the OutboxRelay, and until when. The events of a patient are only
+    published in order if one relay sends them, so the replicas take turns through this row. */
+@Entity
+@Table(name = "patient_outbox_lease")
+public class OutboxLease {
+    // The name of the job the lease is for; there is one row per job
+    @Id
+    private String name;
+
+    // The replica holding the lease
+    @Column(nullable = false)
+    private String owner;
+
+    // The lease is free after this time, unless the owner renews it first
+    @Column(nullable = false)
+    private Instant lockedUntil;
+
+    protected OutboxLease() {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public Instant getLockedUntil() {
+        return lockedUntil;
+    }
+}
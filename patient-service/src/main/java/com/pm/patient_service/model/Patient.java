@@ -7,10 +7,19 @@ import jakarta.validation.constraints.NotNull;
 import java.time.LocalDate;
 import java.util.UUID;
 
+/** The indexes back 'GET /patients/search': every filter there can be answered by an index scan */
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_patient_name", columnList = "name"),
+        @Index(name = "idx_patient_email_domain", columnList = "email_domain"),
+        @Index(name = "idx_patient_date_of_birth", columnList = "date_of_birth"),
+        @Index(name = "idx_patient_registered_date", columnList = "registered_date")
+})
 public class Patient {
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    // The UUID is generated in memory before the insert, so Hibernate can batch the inserts
+    // (an IDENTITY column would force one round trip per row to read the generated id back)
+    @GeneratedValue(strategy = GenerationType.UUID)
     private UUID id;
 
     @NotNull
@@ -21,6 +30,10 @@ public class Patient {
     @Column(unique = true)
     private String email;
 
+    /** The part of the email after the '@', kept in its own column so searching by domain
+        is an index lookup instead of a "LIKE '%@domain'" scan; it is set with the email */
+    private String emailDomain;
+
     @NotNull
     private String address;
 
@@ -52,6 +65,11 @@ public class Patient {
 
     public void setEmail(String email) {
         this.email = email;
+        this.emailDomain = email == null ? null : email.substring(email.indexOf('@') + 1).toLowerCase();
+    }
+
+    public String getEmailDomain() {
+        return emailDomain;
     }
 
     public String getAddress() {
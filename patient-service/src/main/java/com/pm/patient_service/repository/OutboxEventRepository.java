@@ -0,0 +1,50 @@
+package com.pm.patient_service.repository;
+
+import com.pm.patient_service.model.OutboxEvent;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    /** A patient with an event waiting for its next attempt: the id of its first such event and
+        when the last of them is due */
+    interface WaitingPatient {
+        String getAggregateId();
+        Long getFirstId();
+        Instant getNextAttemptAt();
+    }
+
+    /** The events that can be sent now, oldest first, which is the order they have to be published in */
+    @Query("SELECT e FROM OutboxEvent e WHERE e.parkedAt IS NULL"
+            + " AND (e.nextAttemptAt IS NULL OR e.nextAttemptAt <= :now) ORDER BY e.id")
+    List<OutboxEvent> findDue(@Param("now") Instant now, Limit limit);
+
+    @Query("SELECT e.aggregateId AS aggregateId, MIN(e.id) AS firstId, MAX(e.nextAttemptAt) AS nextAttemptAt"
+            + " FROM OutboxEvent e WHERE e.parkedAt IS NULL AND e.nextAttemptAt > :now GROUP BY e.aggregateId")
+    List<WaitingPatient> findWaitingPatients(@Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.attempts = e.attempts + 1, e.nextAttemptAt = :nextAttemptAt WHERE e.id IN :ids")
+    void recordFailedAttempt(@Param("ids") Collection<Long> ids, @Param("nextAttemptAt") Instant nextAttemptAt);
+
+    // Not an attempt: the event waits behind an earlier event of its patient
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.nextAttemptAt = :nextAttemptAt WHERE e.id IN :ids")
+    void postpone(@Param("ids") Collection<Long> ids, @Param("nextAttemptAt") Instant nextAttemptAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.attempts = e.attempts + 1, e.parkedAt = :parkedAt WHERE e.id IN :ids")
+    void park(@Param("ids") Collection<Long> ids, @Param("parkedAt") Instant parkedAt);
+}
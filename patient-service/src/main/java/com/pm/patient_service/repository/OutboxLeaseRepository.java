@@ -0,0 +1,37 @@
+package com.pm.patient_service.repository;
+
+import com.pm.patient_service.model.OutboxLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+@Repository
+public interface OutboxLeaseRepository extends JpaRepository<OutboxLease, String> {
+
+    /** Takes the lease if it is free, or renews it if 'owner' already holds it; returns 1 if
+        'owner' holds it until 'lockedUntil' now. One UPDATE, so two replicas can't both take it. */
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxLease l SET l.owner = :owner, l.lockedUntil = :lockedUntil"
+            + " WHERE l.name = :name AND (l.lockedUntil <= :now OR l.owner = :owner)")
+    int acquire(@Param("name") String name, @Param("owner") String owner,
+                @Param("now") Instant now, @Param("lockedUntil") Instant lockedUntil);
+
+    /** Creates the lease row, held by 'owner'; fails with a DataIntegrityViolationException when
+        another replica created it first */
+    @Transactional
+    @Modifying
+    @Query("INSERT INTO OutboxLease (name, owner, lockedUntil) VALUES (:name, :owner, :lockedUntil)")
+    int create(@Param("name") String name, @Param("owner") String owner, @Param("lockedUntil") Instant lockedUntil);
+
+    // Frees the lease right away, so another replica doesn't have to wait for it to run out
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxLease l SET l.lockedUntil = :now WHERE l.name = :name AND l.owner = :owner")
+    int release(@Param("name") String name, @Param("owner") String owner, @Param("now") Instant now);
+}
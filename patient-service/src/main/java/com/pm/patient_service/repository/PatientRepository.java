@@ -1,12 +1,45 @@
 package com.pm.patient_service.repository;
 
 import com.pm.patient_service.model.Patient;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
-public interface PatientRepository extends JpaRepository<Patient, UUID> {
+public interface PatientRepository extends JpaRepository<Patient, UUID>, JpaSpecificationExecutor<Patient> {
     boolean existsByEmail(String email);
     boolean existsByEmailAndIdNot(String email, UUID uuid);
+
+    /** Checks a whole batch of emails in one query; returns the ones that are already taken */
+    @Query("SELECT p.email FROM Patient p WHERE p.email IN :emails")
+    Set<String> findExistingEmails(@Param("emails") Collection<String> emails);
+
+    /** Keyset pagination; the first page has no cursor, so we just order by the primary key */
+    List<Patient> findAllByOrderByIdAsc(Limit limit);
+
+    /** Every following page starts right after the last id of the previous page, so the
+        database seeks on the primary key index instead of skipping over OFFSET rows */
+    List<Patient> findByIdGreaterThanOrderByIdAsc(UUID after, Limit limit);
+
+    /** The fetch size hint makes the JDBC driver pull rows from the cursor in chunks instead
+        of buffering the whole result set. The stream must be consumed inside a transaction. */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p FROM Patient p ORDER BY p.id")
+    Stream<Patient> streamAllBy();
+
+    // Loads the EmailIndex; read in chunks like 'streamAllBy'
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p.email FROM Patient p")
+    Stream<String> streamAllEmails();
 }
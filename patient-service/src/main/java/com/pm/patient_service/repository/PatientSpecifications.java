@@ -0,0 +1,48 @@
+package com.pm.patient_service.repository;
+
+import com.pm.patient_service.model.Patient;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/** The filters of 'GET /patients/search'. Each one returns null when its value is missing,
+    which 'Specification.allOf' skips, so only the given filters end up in the query. */
+public class PatientSpecifications {
+
+    // A prefix LIKE (no leading '%') can use the index on 'name'
+    public static Specification<Patient> nameStartsWith(String prefix) {
+        if (prefix == null || prefix.isBlank()) return null;
+        String escaped = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return (root, query, cb) -> cb.like(root.get("name"), escaped + "%", '\\');
+    }
+
+    public static Specification<Patient> emailDomain(String domain) {
+        if (domain == null || domain.isBlank()) return null;
+        return (root, query, cb) -> cb.equal(root.get("emailDomain"), domain.toLowerCase());
+    }
+
+    public static Specification<Patient> dateOfBirthBetween(LocalDate from, LocalDate to) {
+        return between("dateOfBirth", from, to);
+    }
+
+    public static Specification<Patient> registeredDateBetween(LocalDate from, LocalDate to) {
+        return between("registeredDate", from, to);
+    }
+
+    // The keyset cursor, same as 'GET /patients'
+    public static Specification<Patient> idAfter(UUID after) {
+        if (after == null) return null;
+        return (root, query, cb) -> cb.greaterThan(root.get("id"), after);
+    }
+
+    // Both ends are inclusive and either one may be left out
+    private static Specification<Patient> between(String attribute, LocalDate from, LocalDate to) {
+        if (from == null && to == null) return null;
+        return (root, query, cb) -> {
+            if (from == null) return cb.lessThanOrEqualTo(root.get(attribute), to);
+            if (to == null) return cb.greaterThanOrEqualTo(root.get(attribute), from);
+            return cb.between(root.get(attribute), from, to);
+        };
+    }
+}
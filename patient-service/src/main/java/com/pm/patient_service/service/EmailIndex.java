@@ -0,0 +1,100 @@
+package com.pm.patient_service.service;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.pm.patient_service.repository.PatientRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+/** A Bloom filter over every patient email. It can say "this email is definitely not taken"
+    without a query, so most new emails skip the 'existsByEmail' SELECT; a "maybe" still goes
+    to the database. The unique constraint on 'email' stays the source of truth, so a wrong
+    answer here can never let a duplicate in.
+    Deleted emails can't be removed from a Bloom filter, so we rebuild it from the table
+    every 'rebuild-interval-ms' to keep the false positive rate down. */
+@Component
+public class EmailIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailIndex.class);
+    private final PatientRepository patientRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final Counter skippedLookups;
+    private final Counter databaseLookups;
+
+    // Null until the first load finished; until then every email is a "maybe"
+    private volatile BloomFilter<String> filter;
+    // The filter being rebuilt; emails added during a rebuild go into both
+    private volatile BloomFilter<String> rebuilding;
+
+    public EmailIndex(
+            PatientRepository patientRepository,
+            TransactionTemplate transactionTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${patient.email-index.expected-insertions:1000000}") long expectedInsertions,
+            @Value("${patient.email-index.false-positive-rate:0.01}") double falsePositiveRate
+    ) {
+        this.patientRepository = patientRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.skippedLookups = meterRegistry.counter("patient.email.index.lookups", "result", "skipped");
+        this.databaseLookups = meterRegistry.counter("patient.email.index.lookups", "result", "database");
+    }
+
+    /** Returns false only when no patient has this email */
+    public boolean mightContain(String email) {
+        BloomFilter<String> current = filter;
+        if (current != null && !current.mightContain(email)) {
+            skippedLookups.increment();
+            return false;
+        }
+        databaseLookups.increment();
+        return true;
+    }
+
+    /** Must be called after the patient with this email was committed */
+    public void add(String email) {
+        BloomFilter<String> current = filter;
+        if (current != null) current.put(email);
+        BloomFilter<String> next = rebuilding;
+        if (next != null) next.put(email);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(
+            initialDelayString = "${patient.email-index.rebuild-interval-ms:3600000}",
+            fixedDelayString = "${patient.email-index.rebuild-interval-ms:3600000}"
+    )
+    public void rebuild() {
+        BloomFilter<String> next = BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falsePositiveRate
+        );
+        rebuilding = next;
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<String> emails = patientRepository.streamAllEmails()) {
+                    emails.forEach(next::put);
+                }
+            });
+            filter = next;
+            log.info("Loaded about {} patient emails into the email index", next.approximateElementCount());
+        } catch (RuntimeException e) {
+            log.warn("Could not load the email index, uniqueness checks will use the database: {}", e.getMessage());
+        } finally {
+            rebuilding = null;
+        }
+    }
+}
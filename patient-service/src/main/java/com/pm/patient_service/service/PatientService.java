@@ -1,78 +1,414 @@
 package com.pm.patient_service.service;
 
+import billing.BillingRequest;
 import billing.BillingResponse;
+import com.pm.patient_service.dto.PatientBulkResultDTO;
 import com.pm.patient_service.dto.PatientRequestDTO;
 import com.pm.patient_service.dto.PatientResponseDTO;
+import com.pm.patient_service.dto.validators.CreatePatientValidationGroup;
+import com.pm.patient_service.exception.BulkRequestTooLargeException;
 import com.pm.patient_service.exception.EmailAlreadyExistException;
 import com.pm.patient_service.exception.PatientNotFoundException;
 import com.pm.patient_service.grpc.BillingServiceGrpcClient;
-import com.pm.patient_service.kafka.KafkaProducer;
 import com.pm.patient_service.mapper.PatientMapper;
+import com.pm.patient_service.model.OutboxEvent;
 import com.pm.patient_service.model.Patient;
+import com.pm.patient_service.repository.OutboxEventRepository;
 import com.pm.patient_service.repository.PatientRepository;
+import com.pm.patient_service.repository.PatientSpecifications;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import jakarta.validation.groups.Default;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class PatientService {
     private static final Logger log = LoggerFactory.getLogger(PatientService.class);
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final String PATIENTS_CACHE = "patients";
+    private static final String PATIENT_CREATED = "PATIENT_CREATED";
+    private static final String PATIENT_UPDATED = "PATIENT_UPDATED";
+    private static final String PATIENT_DELETED = "PATIENT_DELETED";
     private final PatientRepository patientRepository;
     private final BillingServiceGrpcClient billingServiceGrpcClient;
-    private final KafkaProducer kafkaProducer;
+    private final OutboxEventRepository outboxEventRepository;
+    private final EmailIndex emailIndex;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final Executor billingExecutor;
+    private final int batchSize;
+    private final int maxBulkSize;
 
     PatientService(
             PatientRepository repository,
             BillingServiceGrpcClient billingService,
-            KafkaProducer kafkaProducer // We inject the KafkaProducer
+            OutboxEventRepository outboxEventRepository, // Events are published from the outbox by the OutboxRelay
+            EmailIndex emailIndex,
+            EntityManager entityManager,
+            TransactionTemplate transactionTemplate,
+            Validator validator,
+            // The bulk billing fallback blocks on the batch calls, so it runs here and not on a request thread
+            @Qualifier("applicationTaskExecutor") Executor billingExecutor,
+            // We flush the bulk inserts in chunks of the same size as the JDBC batch
+            @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}") int batchSize,
+            @Value("${patient.bulk.max-size:5000}") int maxBulkSize
     ) {
         this.patientRepository = repository; this.billingServiceGrpcClient = billingService;
-        this.kafkaProducer = kafkaProducer;
+        this.outboxEventRepository = outboxEventRepository;
+        this.emailIndex = emailIndex;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.validator = validator;
+        this.billingExecutor = billingExecutor;
+        this.batchSize = batchSize;
+        this.maxBulkSize = maxBulkSize;
     }
 
-    public List<PatientResponseDTO> getPatient() {
-        List<Patient> patients = patientRepository.findAll();
+    /** Returns at most 'limit' patients ordered by id, starting right after the 'after' cursor.
+        Pass the id of the last patient of a page as 'after' to get the next page. */
+    public List<PatientResponseDTO> getPatient(UUID after, int limit) {
+        Limit pageSize = Limit.of(Math.clamp(limit, 1, MAX_PAGE_SIZE));
+        List<Patient> patients = after == null
+                ? patientRepository.findAllByOrderByIdAsc(pageSize)
+                : patientRepository.findByIdGreaterThanOrderByIdAsc(after, pageSize);
         return patients.stream().map(PatientMapper::toDTO).toList();
     }
 
-    public PatientResponseDTO createPatient(PatientRequestDTO patientRequestDTO) {
-        if (patientRepository.existsByEmail(patientRequestDTO.getEmail())) {
+    /** Every filter is optional; the results are ordered by id and paged with the same
+        'after' cursor as 'getPatient', so a deep page is still an index seek. */
+    public List<PatientResponseDTO> searchPatients(
+            String namePrefix, String emailDomain,
+            LocalDate dateOfBirthFrom, LocalDate dateOfBirthTo,
+            LocalDate registeredFrom, LocalDate registeredTo,
+            UUID after, int limit
+    ) {
+        Specification<Patient> specification = Specification.allOf(
+                PatientSpecifications.nameStartsWith(namePrefix),
+                PatientSpecifications.emailDomain(emailDomain),
+                PatientSpecifications.dateOfBirthBetween(dateOfBirthFrom, dateOfBirthTo),
+                PatientSpecifications.registeredDateBetween(registeredFrom, registeredTo),
+                PatientSpecifications.idAfter(after)
+        );
+        List<Patient> patients = patientRepository.findBy(specification, query -> query
+                .sortBy(Sort.by("id"))
+                .limit(Math.clamp(limit, 1, MAX_PAGE_SIZE))
+                .all());
+        return patients.stream().map(PatientMapper::toDTO).toList();
+    }
+
+    /** Read-through: only a cache miss goes to the database. The entry is replaced on
+        update and removed on delete (see 'PatientCacheInvalidator' for other replicas). */
+    @Cacheable(cacheNames = PATIENTS_CACHE, key = "#id")
+    public PatientResponseDTO getPatientById(UUID id) {
+        Patient patient = patientRepository.findById(id).orElseThrow(
+            () -> new PatientNotFoundException("Patient not found with ID: " + id)
+        );
+        return PatientMapper.toDTO(patient);
+    }
+
+    /** Hands every patient to the consumer one at a time. We detach each entity once it is
+        mapped so the persistence context doesn't grow with the table. */
+    @Transactional(readOnly = true)
+    public void streamPatients(Consumer<PatientResponseDTO> consumer) {
+        try (Stream<Patient> patients = patientRepository.streamAllBy()) {
+            patients.forEach(patient -> {
+                consumer.accept(PatientMapper.toDTO(patient));
+                entityManager.detach(patient);
+            });
+        }
+    }
+
+    /** Returns as soon as the patient is committed; the future completes when the billing
+        service answered, or fails with a 'BillingServiceException' once the deadline passed.
+        The request thread doesn't wait for billing, and the event is published by the outbox. */
+    public CompletableFuture<PatientResponseDTO> createPatient(PatientRequestDTO patientRequestDTO) {
+        // The email index answers most "is this email taken?" checks without a query
+        if (emailIndex.mightContain(patientRequestDTO.getEmail())
+                && patientRepository.existsByEmail(patientRequestDTO.getEmail())) {
             throw new EmailAlreadyExistException(
                     "A patient with this email already exist " + patientRequestDTO.getEmail()
             );
         }
-        Patient newPatient = patientRepository.save(PatientMapper.toModel(patientRequestDTO));
+        // The patient and its PATIENT_CREATED event are committed together
+        Patient newPatient = uniqueEmail(patientRequestDTO.getEmail(), null, () -> transactionTemplate.execute(status -> {
+            Patient patient = patientRepository.save(PatientMapper.toModel(patientRequestDTO));
+            outboxEventRepository.save(PatientMapper.toOutboxEvent(patient, PATIENT_CREATED));
+            return patient;
+        }));
+        emailIndex.add(newPatient.getEmail());
 
         // We make a gRPC request to the billing service
-        BillingResponse response = billingServiceGrpcClient.createBillingAccount(
-                newPatient.getId().toString(), newPatient.getName(), newPatient.getEmail()
-        );
-        log.info("Received GRPC response from billing service: {}", response.toString());
-        kafkaProducer.sendEvent(newPatient);
-        return PatientMapper.toDTO(newPatient);
+        return billingServiceGrpcClient
+                .createBillingAccountAsync(PatientMapper.toBillingRequest(newPatient))
+                .thenApply(response -> {
+                    log.info("Received GRPC response from billing service: {}", response.toString());
+                    return PatientMapper.toDTO(newPatient);
+                });
+    }
+
+    /** Creates many patients at once. Each row is validated on its own and every row gets a
+        result, so one bad row doesn't fail the whole import. The email check is a few IN
+        queries for the whole batch, the inserts are JDBC batches, and billing gets the patients
+        over one stream; the events are published from the outbox. We return once the patients
+        are saved; their billing accounts are created in the background. The whole import is
+        held in memory, so it can have at most 'patient.bulk.max-size' rows. */
+    public List<PatientBulkResultDTO> createPatients(List<PatientRequestDTO> patientRequestDTOS) {
+        if (patientRequestDTOS.size() > maxBulkSize) {
+            throw new BulkRequestTooLargeException(
+                    "A bulk import can have at most " + maxBulkSize + " patients, got " + patientRequestDTOS.size()
+            );
+        }
+        PatientBulkResultDTO[] results = new PatientBulkResultDTO[patientRequestDTOS.size()];
+
+        // We validate every row and keep the first row for each email
+        Map<String, Integer> rowsByEmail = new LinkedHashMap<>();
+        for (int i = 0; i < patientRequestDTOS.size(); i++) {
+            PatientRequestDTO patientRequestDTO = patientRequestDTOS.get(i);
+            Set<ConstraintViolation<PatientRequestDTO>> violations = validator.validate(
+                    patientRequestDTO, Default.class, CreatePatientValidationGroup.class
+            );
+            if (!violations.isEmpty()) {
+                results[i] = PatientBulkResultDTO.rejected(i, violations.iterator().next().getMessage());
+            } else if (rowsByEmail.putIfAbsent(patientRequestDTO.getEmail(), i) != null) {
+                results[i] = PatientBulkResultDTO.rejected(i, "Email address is duplicated in this batch");
+            }
+        }
+
+        // A few queries tell us which of the emails are already taken; the email index
+        // rules out most of them, so usually only a few emails are left to check
+        List<String> maybeTakenEmails = rowsByEmail.keySet().stream().filter(emailIndex::mightContain).toList();
+        Set<String> existingEmails = findExistingEmails(maybeTakenEmails);
+
+        List<Patient> newPatients = new ArrayList<>();
+        List<Integer> newPatientRows = new ArrayList<>();
+        rowsByEmail.forEach((email, row) -> {
+            if (existingEmails.contains(email)) {
+                results[row] = PatientBulkResultDTO.rejected(row, "Email address already exists");
+                return;
+            }
+            try {
+                newPatients.add(PatientMapper.toModel(patientRequestDTOS.get(row)));
+                newPatientRows.add(row);
+            } catch (DateTimeParseException e) {
+                results[row] = PatientBulkResultDTO.rejected(row, "Invalid date " + e.getParsedString());
+            }
+        });
+
+        if (!newPatients.isEmpty()) {
+            insertPatients(newPatients, newPatientRows, results);
+            newPatients.forEach(patient -> emailIndex.add(patient.getEmail()));
+            int patientCount = newPatients.size();
+            createBillingAccounts(List.copyOf(newPatients)).thenAccept(failures -> {
+                if (!failures.isEmpty()) {
+                    log.warn("Billing account creation failed for {} of {} imported patients: {}",
+                            failures.size(), patientCount, failures);
+                }
+            });
+        }
+
+        for (int i = 0; i < newPatients.size(); i++) {
+            int row = newPatientRows.get(i);
+            results[row] = PatientBulkResultDTO.created(row, PatientMapper.toDTO(newPatients.get(i)));
+        }
+        return Arrays.asList(results);
+    }
+
+    /** A concurrent create (on this replica or another one) may have taken some of the emails
+        since we checked; the email index doesn't know about those. When the unique constraint
+        fails the transaction, we look the emails up again, reject the rows whose email is taken
+        now and insert the others again. Each retry drops at least one row, so this ends. The
+        rows that are left in 'patients' / 'rows' are the inserted ones. */
+    private void insertPatients(List<Patient> patients, List<Integer> rows, PatientBulkResultDTO[] results) {
+        while (!patients.isEmpty()) {
+            try {
+                transactionTemplate.execute(status -> insertPatients(patients));
+                return;
+            } catch (DataIntegrityViolationException e) {
+                Set<String> takenEmails = findExistingEmails(patients.stream().map(Patient::getEmail).toList());
+                if (takenEmails.isEmpty()) {
+                    throw e; // Not the email (a NOT NULL or length violation): a bug, not a bad row
+                }
+                for (int i = patients.size() - 1; i >= 0; i--) {
+                    Patient patient = patients.get(i);
+                    if (takenEmails.contains(patient.getEmail())) {
+                        results[rows.get(i)] = PatientBulkResultDTO.rejected(rows.get(i), "Email address already exists");
+                        emailIndex.add(patient.getEmail());
+                        patients.remove(i);
+                        rows.remove(i);
+                    } else {
+                        // The rolled back insert gave it an id; without one it's inserted, not merged
+                        patient.setId(null);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Hibernate groups the inserts into JDBC batches; we flush and clear after every
+        batch so the persistence context doesn't hold the whole import. The outbox events
+        are written in the same transaction, so they are batched too. */
+    private List<Patient> insertPatients(List<Patient> patients) {
+        for (int from = 0; from < patients.size(); from += batchSize) {
+            List<Patient> batch = patientRepository.saveAll(
+                    patients.subList(from, Math.min(from + batchSize, patients.size()))
+            );
+            List<OutboxEvent> events = batch.stream()
+                    .map(patient -> PatientMapper.toOutboxEvent(patient, PATIENT_CREATED))
+                    .toList();
+            outboxEventRepository.saveAll(events);
+            patientRepository.flush(); // Through the repository, so a constraint violation is a DataIntegrityViolationException
+            entityManager.clear();
+        }
+        return patients;
     }
 
+    /** Completes with the ids of the patients whose billing account could not be created; no
+        thread waits for it. All the accounts go over one 'StreamBillingAccounts' stream, which
+        only sends as fast as billing creates them (flow control), whatever the size of the
+        import. When the stream fails (e.g. an older billing service without it), the patients
+        it didn't answer for go in batches on the 'billingExecutor'. Some of those may have been
+        created already, their answer lost with the stream; billing creates one account per
+        patient, so sending them again gives back the same account and not a second one. */
+    private CompletableFuture<Set<String>> createBillingAccounts(List<Patient> patients) {
+        Map<String, Patient> unanswered = new ConcurrentHashMap<>();
+        patients.forEach(patient -> unanswered.put(patient.getId().toString(), patient));
+        return billingServiceGrpcClient.streamBillingAccounts(
+                patients.stream().map(PatientMapper::toBillingRequest).iterator(),
+                response -> unanswered.remove(response.getPatientId())
+        ).handle((done, failure) -> {
+            if (failure != null) {
+                log.warn("Billing account stream failed with {} of {} patients left, sending them in batches: {}",
+                        unanswered.size(), patients.size(), failure.getMessage());
+            }
+            // Still in the order of the import
+            return patients.stream()
+                    .filter(patient -> unanswered.containsKey(patient.getId().toString()))
+                    .toList();
+        }).thenCompose(remaining -> remaining.isEmpty()
+                ? CompletableFuture.completedFuture(Set.<String>of())
+                : CompletableFuture.supplyAsync(() -> createBillingAccountsInBatches(remaining), billingExecutor)
+        ).exceptionally(e -> {
+            log.error("Billing account creation failed for the {} imported patients", patients.size(), e);
+            return patients.stream().map(patient -> patient.getId().toString()).collect(Collectors.toSet());
+        });
+    }
+
+    private Set<String> createBillingAccountsInBatches(List<Patient> patients) {
+        Set<String> failures = new HashSet<>();
+        for (int from = 0; from < patients.size(); from += batchSize) {
+            List<BillingRequest> requests = patients.subList(from, Math.min(from + batchSize, patients.size()))
+                    .stream()
+                    .map(PatientMapper::toBillingRequest)
+                    .toList();
+            List<BillingResponse> responses = billingServiceGrpcClient.createBillingAccounts(requests);
+            for (int i = 0; i < responses.size(); i++) {
+                if (responses.get(i) == null) {
+                    log.warn("Billing account creation failed for patient {}", requests.get(i).getPatientId());
+                    failures.add(requests.get(i).getPatientId());
+                }
+            }
+        }
+        return failures;
+    }
+
+    /** Which of the emails are already taken; in chunks like the inserts, so the IN list
+        stays far below the bind parameter limit of the database (32767 for Postgres) */
+    private Set<String> findExistingEmails(List<String> emails) {
+        Set<String> existing = new HashSet<>();
+        for (int from = 0; from < emails.size(); from += batchSize) {
+            existing.addAll(patientRepository.findExistingEmails(
+                    emails.subList(from, Math.min(from + batchSize, emails.size()))
+            ));
+        }
+        return existing;
+    }
+
+    /** The unique constraint on 'email' is the real check; when a write breaks it
+        (e.g., two requests with the same new email at the same time) we report it
+        the same way as the check before the write. Any other constraint violation is
+        rethrown as it is: we only blame the email when another patient has it now.
+        'id' is the patient being updated, null for a new one. */
+    private <T> T uniqueEmail(String email, UUID id, Supplier<T> write) {
+        try {
+            return write.get();
+        } catch (DataIntegrityViolationException e) {
+            boolean taken = id == null
+                    ? patientRepository.existsByEmail(email)
+                    : patientRepository.existsByEmailAndIdNot(email, id);
+            if (!taken) {
+                throw e;
+            }
+            emailIndex.add(email);
+            throw new EmailAlreadyExistException("A patient with this email already exist " + email);
+        }
+    }
+
+    @CachePut(cacheNames = PATIENTS_CACHE, key = "#id")
     public PatientResponseDTO updatePatient(UUID id, PatientRequestDTO patientRequestDTO) {
         Patient patient = patientRepository.findById(id).orElseThrow(
             () -> new PatientNotFoundException("Patient not found with ID: " + id)
         );
-        if (patientRepository.existsByEmailAndIdNot(patientRequestDTO.getEmail(), id)) {
+        // Keeping the same email, or an email the index has never seen, needs no query
+        if (!patient.getEmail().equals(patientRequestDTO.getEmail())
+                && emailIndex.mightContain(patientRequestDTO.getEmail())
+                && patientRepository.existsByEmailAndIdNot(patientRequestDTO.getEmail(), id)) {
             throw new EmailAlreadyExistException("A patient with this email already exist " + patientRequestDTO.getEmail());
         }
         patient.setName(patientRequestDTO.getName());
         patient.setAddress(patientRequestDTO.getAddress());
         patient.setEmail(patientRequestDTO.getEmail());
         patient.setDateOfBirth(LocalDate.parse(patientRequestDTO.getDateOfBirth()));
-        Patient updatedPatient = patientRepository.save(patient);
+        // The PATIENT_UPDATED event lets the other replicas drop their cached copy
+        Patient updatedPatient = uniqueEmail(patientRequestDTO.getEmail(), id, () -> transactionTemplate.execute(status -> {
+            Patient saved = patientRepository.save(patient);
+            outboxEventRepository.save(PatientMapper.toOutboxEvent(saved, PATIENT_UPDATED));
+            return saved;
+        }));
+        emailIndex.add(updatedPatient.getEmail());
         return PatientMapper.toDTO(updatedPatient);
     }
 
+    @CacheEvict(cacheNames = PATIENTS_CACHE, key = "#id")
     public void deletePatient(UUID id) {
-        patientRepository.deleteById(id);
+        transactionTemplate.executeWithoutResult(status ->
+            patientRepository.findById(id).ifPresent(patient -> {
+                patientRepository.delete(patient);
+                outboxEventRepository.save(PatientMapper.toOutboxEvent(patient, PATIENT_DELETED));
+            })
+        );
     }
 
 }
@@ -6,7 +6,8 @@ CREATE TABLE IF NOT EXISTS patient
     email           VARCHAR(255) UNIQUE NOT NULL,
     address         VARCHAR(255)        NOT NULL,
     date_of_birth   DATE                NOT NULL,
-    registered_date DATE                NOT NULL
+    registered_date DATE                NOT NULL,
+    email_domain    VARCHAR(255)
 );
 
 -- Insert well-known UUIDs for specific patients
@@ -154,4 +155,13 @@ SELECT '223e4567-e89b-12d3-a456-426614174014',
        '789 Willow St, Springfield',
        '1987-10-17',
        '2024-03-29'
-WHERE NOT EXISTS (SELECT 1 FROM patient WHERE id = '223e4567-e89b-12d3-a456-426614174014');
\ No newline at end of file
+WHERE NOT EXISTS (SELECT 1 FROM patient WHERE id = '223e4567-e89b-12d3-a456-426614174014');
+
+-- Databases created before 'email_domain' existed: the CREATE TABLE above does nothing there, and this
+-- script runs before Hibernate's ddl-auto, so the column has to be added here for the UPDATE below
+ALTER TABLE patient ADD COLUMN IF NOT EXISTS email_domain VARCHAR(255);
+
+-- The seeded rows don't set 'email_domain' (the entity does it for new patients); fill it in for 'GET /patients/search'
+UPDATE patient
+SET email_domain = LOWER(SUBSTRING(email FROM POSITION('@' IN email) + 1))
+WHERE email_domain IS NULL;